@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of parsing handler classes with many handler methods and of creating machines
+ * for already parsed classes. Handler classes are generated by the build. Every
+ * benchmark runs with handler methods registered by the generated dispatcher and
+ * with handler methods discovered by reflection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConstructionBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int methodsCount;
+
+    @Param({"generated", "reflective"})
+    public String dispatching;
+
+    private Class<?> mHandlerClass;
+    private Object mHandler;
+
+    @Setup
+    public void setUp() throws Exception {
+        final String handlerClassName = "de.halfbit.tinymachine.Handler" + methodsCount;
+        mHandlerClass = "reflective".equals(dispatching)
+                ? Class.forName(handlerClassName + "$Reflective")
+                : Class.forName(handlerClassName);
+        final Constructor<?> constructor = mHandlerClass.getDeclaredConstructor();
+        constructor.setAccessible(true); // reflective subclass is private
+        mHandler = constructor.newInstance();
+    }
+
+    /** Parses handler methods without using the cache. */
+    @Benchmark
+    public Object buildHandlerTable() {
+        return new HandlerTable(mHandlerClass);
+    }
+
+    /** Creates a machine for a cached handler class. */
+    @Benchmark
+    public TinyMachine createMachine() {
+        return new TinyMachine(mHandler, 0);
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a concurrent machine shared by several producer threads. Machines
+ * have no shared task pool anymore, the contention point is the task queue.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContentionBenchmark {
+
+    private static final String EVENT = "event";
+
+    public static class Handler {
+
+        public long counter;
+
+        @StateHandler(state = 0)
+        public void onEvent(String event) {
+            counter++; // handler methods are never called concurrently
+        }
+    }
+
+    private TinyMachine mTinyMachine;
+
+    @Setup
+    public void setUp() {
+        mTinyMachine = new ConcurrentTinyMachine(new Handler(), 0);
+    }
+
+    @Benchmark
+    @Group("producers1")
+    @GroupThreads(1)
+    public void fireEvent1() {
+        mTinyMachine.fireEvent(EVENT);
+    }
+
+    @Benchmark
+    @Group("producers4")
+    @GroupThreads(4)
+    public void fireEvent4() {
+        mTinyMachine.fireEvent(EVENT);
+    }
+
+    @Benchmark
+    @Group("producers8")
+    @GroupThreads(8)
+    public void fireEvent8() {
+        mTinyMachine.fireEvent(EVENT);
+    }
+
+}
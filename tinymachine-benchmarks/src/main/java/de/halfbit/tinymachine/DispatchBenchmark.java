@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+
+/**
+ * Throughput of single-threaded event dispatching and transitions. Every benchmark
+ * runs with handler methods called by the generated dispatcher and by reflection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DispatchBenchmark {
+
+    private static final int STATE_A = 0;
+    private static final int STATE_B = 1;
+
+    private static final String HANDLED = "handled";
+    private static final Long UNHANDLED = 1L;
+    private static final Integer ANY_STATE = 1;
+    private static final Character NESTED = 'n';
+    private static final Short DECLARED_TOGGLE = 1;
+    private static final Byte HANDLED_TOGGLE = 1;
+    private static final int CODE_HANDLED = 1;
+
+    @Transitions({
+            @Transition(from = STATE_A, on = Short.class, to = STATE_B),
+            @Transition(from = STATE_B, on = Short.class, to = STATE_A)
+    })
+    public static class Handler {
+
+        public int counter;
+
+        @StateHandler(state = STATE_A)
+        public void onEvent(String event) {
+            counter++;
+        }
+
+        @StateHandler(state = STATE_A, code = CODE_HANDLED)
+        public void onCode(long payload) {
+            counter++;
+        }
+
+        @StateHandler(state = StateHandler.STATE_ANY)
+        public void onEvent(Integer event) {
+            counter++;
+        }
+
+        @StateHandler(state = STATE_A)
+        public void onNestedEvent(Character event, TinyMachine tm) {
+            // each nested event is queued and processed after this handler returns
+            for (int i = 0; i < 10; i++) {
+                tm.fireEvent(HANDLED);
+            }
+        }
+
+        @StateHandler(state = STATE_A)
+        public void onToggleA(Byte event, TinyMachine tm) {
+            tm.transitionTo(STATE_B);
+        }
+
+        @StateHandler(state = STATE_B)
+        public void onToggleB(Byte event, TinyMachine tm) {
+            tm.transitionTo(STATE_A);
+        }
+
+        @StateHandler(state = STATE_A, type = Type.OnEntry)
+        public void onEntryA() {
+            counter++;
+        }
+
+        @StateHandler(state = STATE_A, type = Type.OnExit)
+        public void onExitA() {
+            counter++;
+        }
+
+        @StateHandler(state = STATE_B, type = Type.OnEntry)
+        public void onEntryB() {
+            counter++;
+        }
+
+        @StateHandler(state = STATE_B, type = Type.OnExit)
+        public void onExitB() {
+            counter++;
+        }
+    }
+
+    /** Subclass without generated dispatcher, so that its handler methods use reflection. */
+    @Transitions({
+            @Transition(from = STATE_A, on = Short.class, to = STATE_B),
+            @Transition(from = STATE_B, on = Short.class, to = STATE_A)
+    })
+    private static class ReflectiveHandler extends Handler {
+    }
+
+    @Param({"generated", "reflective"})
+    public String dispatching;
+
+    private Handler mHandler;
+    private TinyMachine mTinyMachine;
+
+    @Setup
+    public void setUp() {
+        mHandler = "reflective".equals(dispatching) ? new ReflectiveHandler() : new Handler();
+        mTinyMachine = new TinyMachine(mHandler, STATE_A);
+    }
+
+    @Benchmark
+    public int fireHandledEvent() {
+        mTinyMachine.fireEvent(HANDLED);
+        return mHandler.counter;
+    }
+
+    /** Event code with a payload, not boxed by the generated dispatcher. */
+    @Benchmark
+    public int fireHandledEventCode() {
+        mTinyMachine.fireEventCode(CODE_HANDLED, mHandler.counter);
+        return mHandler.counter;
+    }
+
+    @Benchmark
+    public int fireUnhandledEvent() {
+        mTinyMachine.fireEvent(UNHANDLED);
+        return mHandler.counter;
+    }
+
+    @Benchmark
+    public int fireAnyStateEvent() {
+        mTinyMachine.fireEvent(ANY_STATE);
+        return mHandler.counter;
+    }
+
+    /** One event firing ten more events from its handler method. */
+    @Benchmark
+    public int fireNestedEvents() {
+        mTinyMachine.fireEvent(NESTED);
+        return mHandler.counter;
+    }
+
+    /** Two transitions with OnExit and OnEntry handlers each. */
+    @Benchmark
+    public int transitionBackAndForth() {
+        mTinyMachine.transitionTo(STATE_B);
+        mTinyMachine.transitionTo(STATE_A);
+        return mHandler.counter;
+    }
+
+    /** Two transitions declared with {@link Transition}, without handler method calls. */
+    @Benchmark
+    public int declaredTransitionBackAndForth() {
+        mTinyMachine.fireEvent(DECLARED_TOGGLE);
+        mTinyMachine.fireEvent(DECLARED_TOGGLE);
+        return mHandler.counter;
+    }
+
+    /** Two transitions requested by handler methods receiving an event. */
+    @Benchmark
+    public int handlerTransitionBackAndForth() {
+        mTinyMachine.fireEvent(HANDLED_TOGGLE);
+        mTinyMachine.fireEvent(HANDLED_TOGGLE);
+        return mHandler.counter;
+    }
+
+}
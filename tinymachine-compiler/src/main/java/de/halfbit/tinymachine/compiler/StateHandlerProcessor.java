@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Annotation processor generating reflection-free dispatchers for classes declaring
+ * <code>@StateHandler</code> methods. For every such class it generates a class with
+ * <code>$$Dispatcher</code> suffix, which calls handler methods directly.
+ *
+ * <p>
+ *     Duplicate handler methods and handler methods with wrong number or types of
+ *     parameters are reported as compile errors. Dispatchers are not generated for private,
+ *     local and anonymous classes, and for classes receiving events of types which cannot
+ *     be accessed from the package of the class. <code>TinyMachine</code> uses reflection
+ *     for them.
+ *
+ * @author Sergej Shafarenka
+ */
+@SupportedAnnotationTypes(StateHandlerProcessor.STATE_HANDLER)
+public class StateHandlerProcessor extends AbstractProcessor {
+
+    static final String STATE_HANDLER = "de.halfbit.tinymachine.StateHandler";
+    static final String TINY_MACHINE = "de.halfbit.tinymachine.TinyMachine";
+    static final String DISPATCHER_SUFFIX = "$$Dispatcher";
+
+    // mirrors StateHandler constants
+    private static final int STATE_ANY = Integer.MIN_VALUE;
+    private static final int NO_CODE = Integer.MIN_VALUE;
+    private static final int TYPE_ON_ENTRY = 0;
+    private static final int TYPE_ON_EVENT = 1;
+    private static final int TYPE_ON_EXIT = 2;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        final Set<TypeElement> handlerClasses = new LinkedHashSet<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                Element enclosing = element.getEnclosingElement();
+                if (enclosing.getKind() == ElementKind.CLASS) {
+                    handlerClasses.add((TypeElement) enclosing);
+                }
+            }
+        }
+        for (TypeElement handlerClass : handlerClasses) {
+            processHandlerClass(handlerClass);
+        }
+        return true;
+    }
+
+    //-- implementation
+
+    private void processHandlerClass(TypeElement handlerClass) {
+        final List<HandlerMethod> handlerMethods = new ArrayList<>();
+        final Set<String> keys = new HashSet<>();
+        boolean valid = true;
+
+        for (ExecutableElement method : collectPublicMethods(handlerClass)) {
+            AnnotationMirror ann = findStateHandler(method);
+            if (ann == null) {
+                continue;
+            }
+
+            int state = 0;
+            int type = TYPE_ON_EVENT;
+            int code = NO_CODE;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : processingEnv.getElementUtils().getElementValuesWithDefaults(ann).entrySet()) {
+                String name = entry.getKey().getSimpleName().toString();
+                if ("state".equals(name)) {
+                    state = (Integer) entry.getValue().getValue();
+                } else if ("type".equals(name)) {
+                    type = (Integer) entry.getValue().getValue();
+                } else if ("code".equals(name)) {
+                    code = (Integer) entry.getValue().getValue();
+                }
+            }
+
+            final List<? extends VariableElement> params = method.getParameters();
+            if (code != NO_CODE) {
+                if (type != TYPE_ON_EVENT) {
+                    error(method, "Only OnEvent handler methods can receive event codes");
+                    valid = false;
+                    continue;
+                }
+                if (params.size() > 2) {
+                    error(method, "@StateHandler method must have 0, 1 or 2 parameters");
+                    valid = false;
+                    continue;
+                }
+                if (params.size() > 0 && params.get(0).asType().getKind() != TypeKind.LONG) {
+                    error(method, "Payload parameter of @StateHandler method must be long");
+                    valid = false;
+                    continue;
+                }
+                if (params.size() == 2 && !checkMachineParameter(params.get(1))) {
+                    valid = false;
+                    continue;
+                }
+                if (!keys.add(state + ":code:" + code)) {
+                    error(method, "Duplicate handler methods not allowed, method: "
+                            + method.getSimpleName());
+                    valid = false;
+                    continue;
+                }
+                handlerMethods.add(new HandlerMethod(method, state, type, code, null));
+                continue;
+            }
+
+            final String eventType;
+            switch (type) {
+                case TYPE_ON_ENTRY:
+                case TYPE_ON_EXIT: {
+                    if (params.size() > 1) {
+                        error(method, "@StateHandler method must have 0 or 1 parameters");
+                        valid = false;
+                        continue;
+                    }
+                    if (params.size() == 1 && !checkMachineParameter(params.get(0))) {
+                        valid = false;
+                        continue;
+                    }
+                    eventType = null;
+                    break;
+                }
+                case TYPE_ON_EVENT: {
+                    if (params.size() < 1 || params.size() > 2) {
+                        error(method, "@StateHandler method must have 1 or 2 parameters");
+                        valid = false;
+                        continue;
+                    }
+                    TypeMirror paramType = params.get(0).asType();
+                    if (paramType.getKind().isPrimitive()) {
+                        error(method, "Event parameter of @StateHandler method must not be primitive");
+                        valid = false;
+                        continue;
+                    }
+                    if (params.size() == 2 && !checkMachineParameter(params.get(1))) {
+                        valid = false;
+                        continue;
+                    }
+                    eventType = erasure(paramType);
+                    break;
+                }
+                default: {
+                    error(method, "Unsupported event type: " + type);
+                    valid = false;
+                    continue;
+                }
+            }
+
+            if (!keys.add(state + ":" + type + ":" + eventType)) {
+                error(method, "Duplicate handler methods not allowed, method: "
+                        + method.getSimpleName());
+                valid = false;
+                continue;
+            }
+
+            handlerMethods.add(new HandlerMethod(method, state, type, NO_CODE, eventType));
+        }
+
+        if (valid && !handlerMethods.isEmpty() && isAccessible(handlerClass)
+                && hasAccessibleEventTypes(handlerMethods, getPackage(handlerClass))) {
+            writeDispatcher(handlerClass, handlerMethods);
+        }
+    }
+
+    /** Returns public methods of given class including inherited but not overridden ones. */
+    private List<ExecutableElement> collectPublicMethods(TypeElement handlerClass) {
+        final List<ExecutableElement> visited = new ArrayList<>();
+        final List<ExecutableElement> methods = new ArrayList<>();
+        TypeElement type = handlerClass;
+        while (type != null) {
+            for (Element element : type.getEnclosedElements()) {
+                if (element.getKind() != ElementKind.METHOD) {
+                    continue;
+                }
+                ExecutableElement method = (ExecutableElement) element;
+                if (isOverridden(method, visited, handlerClass)) {
+                    continue;
+                }
+                visited.add(method);
+                if (method.getModifiers().contains(Modifier.PUBLIC)) {
+                    methods.add(method);
+                }
+            }
+            type = getSuperclass(type);
+        }
+        return methods;
+    }
+
+    private boolean isOverridden(ExecutableElement method, List<ExecutableElement> visited,
+                                 TypeElement handlerClass) {
+        for (ExecutableElement overrider : visited) {
+            if (processingEnv.getElementUtils().overrides(overrider, method, handlerClass)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static TypeElement getSuperclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+        if (element.getQualifiedName().contentEquals("java.lang.Object")) {
+            return null;
+        }
+        return element;
+    }
+
+    private static AnnotationMirror findStateHandler(ExecutableElement method) {
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (type.getQualifiedName().contentEquals(STATE_HANDLER)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isAccessible(TypeElement type) {
+        Element element = type;
+        while (element.getKind() != ElementKind.PACKAGE) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (element instanceof TypeElement) {
+                NestingKind nesting = ((TypeElement) element).getNestingKind();
+                if (nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS) {
+                    return false;
+                }
+            }
+            element = element.getEnclosingElement();
+        }
+        return true;
+    }
+
+    /** Returns true if dispatcher in given package can cast events to their handled types. */
+    private boolean hasAccessibleEventTypes(List<HandlerMethod> handlerMethods,
+                                            PackageElement dispatcherPackage) {
+        for (HandlerMethod handlerMethod : handlerMethods) {
+            if (handlerMethod.eventType == null) {
+                continue;
+            }
+            TypeMirror type = handlerMethod.method.getParameters().get(0).asType();
+            if (!isAccessible(processingEnv.getTypeUtils().erasure(type), dispatcherPackage)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAccessible(TypeMirror type, PackageElement fromPackage) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return isAccessible(((ArrayType) type).getComponentType(), fromPackage);
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return true;
+        }
+        TypeElement typeElement = (TypeElement) ((DeclaredType) type).asElement();
+        if (!isAccessible(typeElement)) {
+            return false;
+        }
+        if (getPackage(typeElement).equals(fromPackage)) {
+            return true; // package-private and protected types are accessible too
+        }
+        Element element = typeElement;
+        while (element.getKind() != ElementKind.PACKAGE) {
+            if (!element.getModifiers().contains(Modifier.PUBLIC)) {
+                return false;
+            }
+            element = element.getEnclosingElement();
+        }
+        return true;
+    }
+
+    /** Reports an error on given parameter, if it does not receive the machine. */
+    private boolean checkMachineParameter(VariableElement param) {
+        if (erasure(param.asType()).equals(TINY_MACHINE)) {
+            return true;
+        }
+        error(param, "Machine parameter of @StateHandler method must be TinyMachine");
+        return false;
+    }
+
+    private String erasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void writeDispatcher(TypeElement handlerClass, List<HandlerMethod> handlerMethods) {
+        final String packageName = getPackage(handlerClass).getQualifiedName().toString();
+        final String handlerName = handlerClass.getQualifiedName().toString();
+        final String binaryName = processingEnv.getElementUtils()
+                .getBinaryName(handlerClass).toString();
+        final String dispatcherName = (packageName.isEmpty() ? binaryName
+                : binaryName.substring(packageName.length() + 1)) + DISPATCHER_SUFFIX;
+
+        final StringBuilder out = new StringBuilder();
+        out.append("// Generated code from tinymachine-compiler. Do not modify!\n");
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+        out.append("import de.halfbit.tinymachine.Dispatcher;\n");
+        out.append("import de.halfbit.tinymachine.StateHandler;\n");
+        out.append("import de.halfbit.tinymachine.TinyMachine;\n\n");
+        out.append("public final class ").append(dispatcherName).append(" implements Dispatcher {\n\n");
+
+        out.append("    @Override\n");
+        out.append("    public void register(Registry registry) {\n");
+        for (int i = 0; i < handlerMethods.size(); i++) {
+            HandlerMethod handlerMethod = handlerMethods.get(i);
+            final String state = handlerMethod.state == STATE_ANY ? "StateHandler.STATE_ANY"
+                    : String.valueOf(handlerMethod.state);
+            if (handlerMethod.code != NO_CODE) {
+                out.append("        registry.addCode(").append(state).append(", ")
+                        .append(handlerMethod.code).append(", ").append(i).append(");\n");
+                continue;
+            }
+            out.append("        registry.add(")
+                    .append(state)
+                    .append(", StateHandler.Type.")
+                    .append(handlerMethod.type == TYPE_ON_ENTRY ? "OnEntry"
+                            : handlerMethod.type == TYPE_ON_EXIT ? "OnExit" : "OnEvent")
+                    .append(", ")
+                    .append(handlerMethod.eventType == null ? "null" : handlerMethod.eventType + ".class")
+                    .append(", ").append(i).append(");\n");
+        }
+        out.append("    }\n\n");
+
+        out.append("    @Override\n");
+        out.append("    public void dispatch(int index, Object handler, Object event, TinyMachine tm)"
+                + " throws Exception {\n");
+        out.append("        final ").append(handlerName).append(" h = (")
+                .append(handlerName).append(") handler;\n");
+        out.append("        switch (index) {\n");
+        for (int i = 0; i < handlerMethods.size(); i++) {
+            HandlerMethod handlerMethod = handlerMethods.get(i);
+            if (handlerMethod.code != NO_CODE) {
+                continue;
+            }
+            List<? extends VariableElement> params = handlerMethod.method.getParameters();
+            out.append("            case ").append(i).append(": h.")
+                    .append(handlerMethod.method.getSimpleName()).append('(');
+            for (int p = 0; p < params.size(); p++) {
+                if (p > 0) {
+                    out.append(", ");
+                }
+                if (handlerMethod.type == TYPE_ON_EVENT && p == 0) {
+                    out.append('(').append(erasure(params.get(p).asType())).append(") event");
+                } else {
+                    out.append("tm");
+                }
+            }
+            out.append("); break;\n");
+        }
+        out.append("            default: throw new IllegalArgumentException("
+                + "\"Unknown handler index: \" + index);\n");
+        out.append("        }\n");
+        out.append("    }\n\n");
+
+        out.append("    @Override\n");
+        out.append("    public void dispatchCode(int index, Object handler, long payload,"
+                + " TinyMachine tm) throws Exception {\n");
+        out.append("        final ").append(handlerName).append(" h = (")
+                .append(handlerName).append(") handler;\n");
+        out.append("        switch (index) {\n");
+        for (int i = 0; i < handlerMethods.size(); i++) {
+            HandlerMethod handlerMethod = handlerMethods.get(i);
+            if (handlerMethod.code == NO_CODE) {
+                continue;
+            }
+            int paramsCount = handlerMethod.method.getParameters().size();
+            out.append("            case ").append(i).append(": h.")
+                    .append(handlerMethod.method.getSimpleName()).append('(')
+                    .append(paramsCount == 0 ? "" : paramsCount == 1 ? "payload"
+                            : "payload, tm")
+                    .append("); break;\n");
+        }
+        out.append("            default: throw new IllegalArgumentException("
+                + "\"Unknown handler index: \" + index);\n");
+        out.append("        }\n");
+        out.append("    }\n\n");
+        out.append("}\n");
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                    packageName.isEmpty() ? dispatcherName : packageName + "." + dispatcherName,
+                    handlerClass);
+            Writer writer = file.openWriter();
+            try {
+                writer.write(out.toString());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            error(handlerClass, "Cannot write dispatcher: " + e.getMessage());
+        }
+    }
+
+    private static PackageElement getPackage(Element element) {
+        while (element.getKind() != ElementKind.PACKAGE) {
+            element = element.getEnclosingElement();
+        }
+        return (PackageElement) element;
+    }
+
+    //region Inner classes
+
+    private static class HandlerMethod {
+
+        public final ExecutableElement method;
+        public final int state;
+        public final int type;
+        public final int code;
+        public final String eventType;
+
+        public HandlerMethod(ExecutableElement method, int state, int type, int code,
+                             String eventType) {
+            this.method = method;
+            this.state = state;
+            this.type = type;
+            this.code = code;
+            this.eventType = eventType;
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine.compiler;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+public class StateHandlerProcessorTest extends TestCase {
+
+    private static final String TINY_MACHINE_STUB =
+            "package de.halfbit.tinymachine;\n" +
+            "public class TinyMachine {}\n";
+
+    private File mDir;
+    private DiagnosticCollector<JavaFileObject> mDiagnostics;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = File.createTempFile("tinymachine", "");
+        assertTrue(mDir.delete());
+        assertTrue(mDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(mDir);
+        super.tearDown();
+    }
+
+    public void testDispatcherGenerated() throws Exception {
+        boolean success = compile("test/Handler.java",
+                "package test;\n" +
+                "import de.halfbit.tinymachine.*;\n" +
+                "import java.util.*;\n" +
+                "public class Handler {\n" +
+                "    public final List<Object> events = new ArrayList<>();\n" +
+                "    @StateHandler(state = 0, type = StateHandler.Type.OnEntry)\n" +
+                "    public void onEntry() { events.add(\"entry\"); }\n" +
+                "    @StateHandler(state = 0)\n" +
+                "    public void onEvent(String event, TinyMachine tm) { events.add(event); }\n" +
+                "    @StateHandler(state = StateHandler.STATE_ANY, type = StateHandler.Type.OnExit)\n" +
+                "    public void onExit(TinyMachine tm) { events.add(\"exit\"); }\n" +
+                "}\n");
+        assertTrue(mDiagnostics.getDiagnostics().toString(), success);
+
+        ClassLoader loader = new URLClassLoader(new URL[] {mDir.toURI().toURL()});
+        Class<?> handlerClass = loader.loadClass("test.Handler");
+        Class<?> dispatcherClass = loader.loadClass("test.Handler$$Dispatcher");
+        Class<?> registryClass = loader.loadClass("de.halfbit.tinymachine.Dispatcher$Registry");
+        Class<?> machineClass = loader.loadClass("de.halfbit.tinymachine.TinyMachine");
+
+        final List<Object> declarations = new ArrayList<>();
+        Object registry = Proxy.newProxyInstance(loader, new Class<?>[] {registryClass},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        declarations.add(Arrays.asList(args));
+                        return null;
+                    }
+                });
+
+        Object dispatcher = dispatcherClass.newInstance();
+        dispatcherClass.getMethod("register", registryClass).invoke(dispatcher, registry);
+        assertEquals(Arrays.<Object>asList(
+                Arrays.<Object>asList(0, 0, null, 0),
+                Arrays.<Object>asList(0, 1, String.class, 1),
+                Arrays.<Object>asList(Integer.MIN_VALUE, 2, null, 2)
+        ), declarations);
+
+        Object handler = handlerClass.newInstance();
+        Object machine = machineClass.newInstance();
+        Method dispatch = dispatcherClass.getMethod("dispatch",
+                int.class, Object.class, Object.class, machineClass);
+        dispatch.invoke(dispatcher, 0, handler, null, machine);
+        dispatch.invoke(dispatcher, 1, handler, "event", machine);
+        dispatch.invoke(dispatcher, 2, handler, null, machine);
+        assertEquals(Arrays.asList("entry", "event", "exit"),
+                handlerClass.getField("events").get(handler));
+
+        // machine is passed through without a redundant cast
+        String source = read("test/Handler$$Dispatcher.java");
+        assertTrue(source, source.contains("h.onEvent((java.lang.String) event, tm);"));
+        assertFalse(source, source.contains("(de.halfbit.tinymachine.TinyMachine)"));
+    }
+
+    public void testCodeDispatcherGenerated() throws Exception {
+        boolean success = compile("test/Handler.java",
+                "package test;\n" +
+                "import de.halfbit.tinymachine.*;\n" +
+                "import java.util.*;\n" +
+                "public class Handler {\n" +
+                "    public final List<Object> events = new ArrayList<>();\n" +
+                "    @StateHandler(state = 0)\n" +
+                "    public void onEvent(String event) { events.add(event); }\n" +
+                "    @StateHandler(state = 0, code = 7)\n" +
+                "    public void onCode() { events.add(\"code\"); }\n" +
+                "    @StateHandler(state = StateHandler.STATE_ANY, code = 8)\n" +
+                "    public void onPayload(long payload, TinyMachine tm) { events.add(payload); }\n" +
+                "}\n");
+        assertTrue(mDiagnostics.getDiagnostics().toString(), success);
+
+        ClassLoader loader = new URLClassLoader(new URL[] {mDir.toURI().toURL()});
+        Class<?> handlerClass = loader.loadClass("test.Handler");
+        Class<?> dispatcherClass = loader.loadClass("test.Handler$$Dispatcher");
+        Class<?> registryClass = loader.loadClass("de.halfbit.tinymachine.Dispatcher$Registry");
+        Class<?> machineClass = loader.loadClass("de.halfbit.tinymachine.TinyMachine");
+
+        final List<Object> declarations = new ArrayList<>();
+        Object registry = Proxy.newProxyInstance(loader, new Class<?>[] {registryClass},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        declarations.add(method.getName() + Arrays.asList(args));
+                        return null;
+                    }
+                });
+
+        Object dispatcher = dispatcherClass.newInstance();
+        dispatcherClass.getMethod("register", registryClass).invoke(dispatcher, registry);
+        assertEquals(Arrays.<Object>asList(
+                "add[0, 1, class java.lang.String, 0]",
+                "addCode[0, 7, 1]",
+                "addCode[-2147483648, 8, 2]"
+        ), declarations);
+
+        Object handler = handlerClass.newInstance();
+        Object machine = machineClass.newInstance();
+        Method dispatchCode = dispatcherClass.getMethod("dispatchCode",
+                int.class, Object.class, long.class, machineClass);
+        dispatchCode.invoke(dispatcher, 1, handler, 0L, machine);
+        dispatchCode.invoke(dispatcher, 2, handler, 42L, machine);
+        assertEquals(Arrays.<Object>asList("code", 42L),
+                handlerClass.getField("events").get(handler));
+    }
+
+    public void testDispatcherNotGeneratedForPrivateClass() throws Exception {
+        boolean success = compile("test/Outer.java",
+                "package test;\n" +
+                "import de.halfbit.tinymachine.*;\n" +
+                "public class Outer {\n" +
+                "    private static class Handler {\n" +
+                "        @StateHandler(state = 0) public void onEvent(String event) { }\n" +
+                "    }\n" +
+                "}\n");
+        assertTrue(mDiagnostics.getDiagnostics().toString(), success);
+        assertFalse(new File(mDir, "test/Outer$Handler$$Dispatcher.class").exists());
+    }
+
+    public void testDispatcherNotGeneratedForPrivateEventType() throws Exception {
+        boolean success = compile("test/Handler.java",
+                "package test;\n" +
+                "import de.halfbit.tinymachine.*;\n" +
+                "public class Handler {\n" +
+                "    private static class Tick { }\n" +
+                "    @StateHandler(state = 0) public void onEvent(String event) { }\n" +
+                "    @StateHandler(state = 0) public void onTick(Tick tick) { }\n" +
+                "}\n");
+        assertTrue(mDiagnostics.getDiagnostics().toString(), success);
+        assertFalse(new File(mDir, "test/Handler$$Dispatcher.java").exists());
+        assertFalse(new File(mDir, "test/Handler$$Dispatcher.class").exists());
+    }
+
+    public void testDispatcherNotGeneratedForForeignPackagePrivateEventType() throws Exception {
+        write("other/Base.java",
+                "package other;\n" +
+                "import de.halfbit.tinymachine.*;\n" +
+                "public class Base {\n" +
+                "    static class Tick { }\n" +
+                "    @StateHandler(state = 0) public void onTick(Tick tick) { }\n" +
+                "}\n");
+        boolean success = compile("test/Handler.java",
+                "package test;\n" +
+                "import de.halfbit.tinymachine.*;\n" +
+                "public class Handler extends other.Base {\n" +
+                "    @StateHandler(state = 0) public void onEvent(String event) { }\n" +
+                "}\n",
+                "other/Base.java");
+        assertTrue(mDiagnostics.getDiagnostics().toString(), success);
+        assertFalse(new File(mDir, "test/Handler$$Dispatcher.java").exists());
+        assertTrue(new File(mDir, "other/Base$$Dispatcher.java").exists());
+    }
+
+    public void testDuplicateHandlerIsError() throws Exception {
+        boolean success = compile("test/Handler.java",
+                "package test;\n" +
+                "import de.halfbit.tinymachine.*;\n" +
+                "public class Handler {\n" +
+                "    @StateHandler(state = 0) public void onEvent1(String event) { }\n" +
+                "    @StateHandler(state = 0) public void onEvent2(String event) { }\n" +
+                "}\n");
+        assertFalse(success);
+        assertError("Duplicate handler methods not allowed, method: onEvent2");
+    }
+
+    public void testEventHandlerWithoutEventIsError() throws Exception {
+        boolean success = compile("test/Handler.java",
+                "package test;\n" +
+                "import de.halfbit.tinymachine.*;\n" +
+                "public class Handler {\n" +
+                "    @StateHandler(state = 0) public void onEvent() { }\n" +
+                "}\n");
+        assertFalse(success);
+        assertError("@StateHandler method must have 1 or 2 parameters");
+    }
+
+    public void testEntryHandlerWithTooManyParametersIsError() throws Exception {
+        boolean success = compile("test/Handler.java",
+                "package test;\n" +
+                "import de.halfbit.tinymachine.*;\n" +
+                "public class Handler {\n" +
+                "    @StateHandler(state = 0, type = StateHandler.Type.OnEntry)\n" +
+                "    public void onEntry(TinyMachine tm, Object other) { }\n" +
+                "}\n");
+        assertFalse(success);
+        assertError("@StateHandler method must have 0 or 1 parameters");
+    }
+
+    public void testWrongMachineParameterIsError() throws Exception {
+        boolean success = compile("test/Handler.java",
+                "package test;\n" +
+                "import de.halfbit.tinymachine.*;\n" +
+                "public class Handler {\n" +
+                "    @StateHandler(state = 0) public void onEvent(String event, Object tm) { }\n" +
+                "    @StateHandler(state = 0, type = StateHandler.Type.OnExit)\n" +
+                "    public void onExit(String tm) { }\n" +
+                "}\n");
+        assertFalse(success);
+        assertError("Machine parameter of @StateHandler method must be TinyMachine");
+
+        // errors are reported on offending parameters
+        List<Long> lines = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : mDiagnostics.getDiagnostics()) {
+            lines.add(diagnostic.getLineNumber());
+        }
+        assertEquals(Arrays.asList(4L, 6L), lines);
+        assertFalse(new File(mDir, "test/Handler$$Dispatcher.class").exists());
+    }
+
+    public void testCodeHandlerWithWrongPayloadIsError() throws Exception {
+        boolean success = compile("test/Handler.java",
+                "package test;\n" +
+                "import de.halfbit.tinymachine.*;\n" +
+                "public class Handler {\n" +
+                "    @StateHandler(state = 0, code = 1) public void onCode(int payload) { }\n" +
+                "}\n");
+        assertFalse(success);
+        assertError("Payload parameter of @StateHandler method must be long");
+    }
+
+    //-- implementation
+
+    private boolean compile(String path, String source, String... otherPaths)
+            throws IOException {
+        List<File> files = new ArrayList<>();
+        files.add(write(path, source));
+        for (String otherPath : otherPaths) {
+            files.add(new File(mDir, otherPath));
+        }
+        files.add(write("de/halfbit/tinymachine/TinyMachine.java", TINY_MACHINE_STUB));
+        File runtimeSources = new File(System.getProperty("tinymachine.sources"),
+                "de/halfbit/tinymachine");
+        files.add(new File(runtimeSources, "StateHandler.java"));
+        files.add(new File(runtimeSources, "Dispatcher.java"));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        mDiagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+        try {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, mDiagnostics,
+                    Arrays.asList("-d", mDir.getPath(), "-s", mDir.getPath()),
+                    null, fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(Arrays.asList(new StateHandlerProcessor()));
+            return task.call();
+        } finally {
+            fileManager.close();
+        }
+    }
+
+    private void assertError(String message) {
+        for (Diagnostic<? extends JavaFileObject> diagnostic : mDiagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR
+                    && message.equals(diagnostic.getMessage(null))) {
+                return;
+            }
+        }
+        fail("Expected error '" + message + "', actual: " + mDiagnostics.getDiagnostics());
+    }
+
+    private String read(String path) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(new File(mDir, path)), "UTF-8");
+        try {
+            StringBuilder out = new StringBuilder();
+            char[] buffer = new char[1024];
+            for (int count; (count = reader.read(buffer)) != -1; ) {
+                out.append(buffer, 0, count);
+            }
+            return out.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private File write(String path, String source) throws IOException {
+        File file = new File(mDir, path);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(source);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
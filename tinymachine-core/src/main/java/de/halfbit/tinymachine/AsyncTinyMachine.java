@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thread-safe finite-state machine processing events and transitions on given
+ * <code>Executor</code>. Callers never execute handler methods, they only put tasks
+ * into machine's queue and return immediately. This allows handler methods to block
+ * without stalling the callers.
+ *
+ * <p>
+ *     The machine behaves as a serialized actor. No matter how many threads the
+ *     executor has, handler methods of a machine are never called concurrently and
+ *     tasks are processed in the order they were accepted. Different machines can
+ *     share the same executor.
+ *
+ * <p>
+ *     A machine processes at most {@value #DRAIN_BATCH_SIZE} tasks at once. If more tasks
+ *     are pending, it gives the thread back to the executor and continues in a new
+ *     executor task, so that a busy machine does not starve other machines sharing
+ *     the executor.
+ *
+ * <p>
+ *     Exceptions thrown by handler methods complete the future of the task
+ *     exceptionally. Exceptions of tasks without a future are given to the uncaught
+ *     exception handler of executor's thread. In both cases the machine continues
+ *     processing of remaining tasks. Errors are propagated to the executor, remaining
+ *     tasks get processed with the next event or transition.
+ *
+ * @author Sergej Shafarenka
+ */
+public class AsyncTinyMachine extends ConcurrentTinyMachine {
+
+    static final int DRAIN_BATCH_SIZE = 64;
+
+    private final Executor mExecutor;
+    private final Runnable mDrainer;
+
+    /**
+     * Creates new instance of asynchronous FSM machine.
+     *
+     * @param handler      instance with handler methods
+     * @param initialState initial state to put state machine into.
+     *                     <code>Type.OnEntry</code> event is not reported
+     *                     for the initial state.
+     * @param executor     executor to process events and transitions on
+     * @see TinyMachine#TinyMachine(Object, int)
+     */
+    public AsyncTinyMachine(Object handler, int initialState, Executor executor) {
+        this(new MachineDefinition(handler), initialState, null, executor);
+    }
+
+    /**
+     * Creates new instance of asynchronous FSM machine sharing handler of given
+     * definition with other machines.
+     *
+     * @param definition    definition with stateless handler
+     * @param initialState  initial state to put state machine into
+     * @param context       per-instance data or <code>null</code>
+     * @param executor      executor to process events and transitions on
+     * @see TinyMachine#TinyMachine(MachineDefinition, int, Object)
+     */
+    public AsyncTinyMachine(MachineDefinition definition, int initialState,
+                            Object context, Executor executor) {
+        super(definition, initialState, context);
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+        mExecutor = executor;
+        mDrainer = new Runnable() {
+            @Override
+            public void run() {
+                if (!drainTaskQueue(DRAIN_BATCH_SIZE)) {
+                    startDraining(); // queue is still owned, continue in a new task
+                }
+            }
+        };
+    }
+
+    //-- public api
+
+    /**
+     * Asynchronously forwards an event into state machine.
+     *
+     * @param event event to be delivered to a handler method
+     * @return future which completes after the event has been processed. Cancelling
+     *         this future does not prevent the event from being processed. Do not wait
+     *         for this future inside a handler method of the same machine. The future
+     *         is cancelled, if the event gets dropped because the queue is full.
+     *         Events fired by this method are never coalesced.
+     * @see #fireEvent(Object)
+     */
+    public Future<Void> fireEventAsync(Object event) {
+        if (event == null) {
+            throw new IllegalArgumentException("Event must not be null.");
+        }
+        final FutureNode node = new FutureNode(CODE_FIRE_EVENT, event, -1);
+        node.external = !isHandlerThread();
+        if (reserve(CODE_FIRE_EVENT, event, -1)) {
+            enqueue(node, node, 1);
+        } else {
+            node.future.cancel(false);
+        }
+        return node.future;
+    }
+
+    /**
+     * Asynchronously moves state machine in a new given state.
+     *
+     * @param state new state to put state machine into
+     * @return future which completes after the transition has been processed. Cancelling
+     *         this future does not prevent the transition. Do not wait for this future
+     *         inside a handler method of the same machine.
+     * @see #transitionTo(int)
+     */
+    public Future<Void> transitionToAsync(int state) {
+        final FutureNode node = new FutureNode(CODE_TRANSITION, null, state);
+        node.external = !isHandlerThread();
+        if (reserve(CODE_TRANSITION, null, state)) {
+            enqueue(node, node, 1);
+        } else {
+            node.future.cancel(false);
+        }
+        onTransitionScheduled();
+        return node.future;
+    }
+
+    //-- implementation
+
+    @Override
+    void startDraining() {
+        try {
+            mExecutor.execute(mDrainer);
+        } catch (RejectedExecutionException e) {
+            releaseTaskQueue();
+            throw e;
+        }
+    }
+
+    @Override
+    void discard(Node node) {
+        super.discard(node);
+        if (node instanceof FutureNode) {
+            ((FutureNode) node).future.cancel(false);
+        }
+    }
+
+    @Override
+    void process(Node node) {
+        final Object event = takeEvent(node);
+        final TaskFuture future = node instanceof FutureNode ? ((FutureNode) node).future : null;
+        try {
+            execute(node, event);
+        } catch (Exception e) {
+            if (future != null) {
+                future.fail(e);
+            } else {
+                final Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+            return;
+        } catch (Error e) {
+            if (future != null) {
+                future.fail(e);
+            }
+            releaseTaskQueue();
+            throw e;
+        }
+        if (future != null) {
+            future.complete();
+        }
+    }
+
+    @Override
+    void processResumed(Object event) {
+        try {
+            execute(CODE_FIRE_EVENT, event, -1);
+        } catch (Exception e) {
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        } catch (Error e) {
+            releaseTaskQueue();
+            throw e;
+        }
+    }
+
+    //region Inner classes
+
+    private static final class FutureNode extends Node {
+
+        public final TaskFuture future;
+
+        FutureNode(int code, Object event, int state) {
+            super(code, event, state);
+            future = new TaskFuture();
+        }
+    }
+
+    private static final class TaskFuture extends FutureTask<Void> {
+
+        private static final Runnable NOOP = new Runnable() {
+            @Override public void run() { }
+        };
+
+        TaskFuture() {
+            super(NOOP, null);
+        }
+
+        void complete() {
+            set(null);
+        }
+
+        void fail(Throwable e) {
+            setException(e);
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,614 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Thread-safe finite-state machine. It accepts events and transitions from any number
+ * of threads without a global lock.
+ *
+ * <p>
+ *     Tasks are put into a lock-free multi-producer single-consumer queue. The thread,
+ *     which puts a task into an empty machine becomes the drainer and processes all
+ *     tasks in the queue, including tasks put by other threads in the meantime. Other
+ *     threads return immediately after putting their tasks. Handler methods are never
+ *     called concurrently and the stackless processing guarantees of
+ *     <code>TinyMachine</code> are preserved.
+ *
+ * <p>
+ *     If a handler method throws an exception, the drainer rethrows it and leaves the
+ *     machine. Remaining tasks get processed with the next event or transition.
+ *
+ * <p>
+ *     With a queue limit, <code>DropOldest</code> policy never blocks producers. Oldest
+ *     pending events are discarded by the drainer instead of being processed.
+ *     <code>Block</code> policy parks producers until the drainer frees space in the
+ *     queue. The drainer itself is never blocked, even if handler methods fire events
+ *     into a full queue.
+ *
+ * <p>
+ *     Coalescible events replace pending events of the same class, if no transition
+ *     was put into the queue after the pending event.
+ *
+ * @author Sergej Shafarenka
+ */
+public class ConcurrentTinyMachine extends TinyMachine {
+
+    private final MpscQueue mTaskQueue;
+    private final AtomicInteger mWip;
+    private final AtomicInteger mPending;
+    private final AtomicInteger mToDrop;
+    private final Object mSpaceLock;
+    private final ConcurrentHashMap<Class<?>, CoalescedNode> mCoalesced;
+    private final AtomicInteger mTransitionsCount;
+    private TaskQueue mResumed; // deferred events to process first, owned by the drainer
+
+    private volatile int mCurrentState;
+    private volatile int mBlockedCount;
+    private volatile Thread mDrainer;
+    private volatile Thread mHandlerThread; // drainer while it executes tasks
+
+    /**
+     * Creates new instance of thread-safe FSM machine.
+     *
+     * @param handler      instance with handler methods
+     * @param initialState initial state to put state machine into.
+     *                     <code>Type.OnEntry</code> event is not reported
+     *                     for the initial state.
+     * @see TinyMachine#TinyMachine(Object, int)
+     */
+    public ConcurrentTinyMachine(Object handler, int initialState) {
+        this(new MachineDefinition(handler), initialState, null);
+    }
+
+    /**
+     * Creates new instance of thread-safe FSM machine sharing handler of given
+     * definition with other machines.
+     *
+     * @param definition    definition with stateless handler
+     * @param initialState  initial state to put state machine into
+     * @param context       per-instance data or <code>null</code>
+     * @see TinyMachine#TinyMachine(MachineDefinition, int, Object)
+     */
+    public ConcurrentTinyMachine(MachineDefinition definition, int initialState,
+                                 Object context) {
+        super(definition, initialState, context);
+        mTaskQueue = new MpscQueue();
+        mWip = new AtomicInteger();
+        mPending = new AtomicInteger();
+        mToDrop = new AtomicInteger();
+        mSpaceLock = new Object();
+        mCoalesced = new ConcurrentHashMap<>();
+        mTransitionsCount = new AtomicInteger();
+        mCurrentState = initialState;
+    }
+
+    /**
+     * Returns current machine state. This method can be called from any thread.
+     *
+     * @return current machine state
+     */
+    @Override
+    public int getCurrentState() {
+        return mCurrentState;
+    }
+
+    /**
+     * Forwards a batch of events into state machine. The whole batch is put into the
+     * queue with a single atomic operation. Like with events fired by concurrent
+     * threads, transitions requested by handler methods are processed after the events
+     * already put into the queue, which includes the rest of the batch. If the queue
+     * is limited, events are put into the queue one by one.
+     *
+     * @param events events to be delivered to handler methods
+     * @throws IllegalArgumentException if any of events is <code>null</code>. No event
+     *                                  gets delivered in this case.
+     */
+    @Override
+    public void fireEvents(Iterable<?> events) {
+        if (getQueueLimit() != UNLIMITED) {
+            for (Object event : copyEvents(events)) {
+                schedule(CODE_FIRE_EVENT, event, -1);
+            }
+            return;
+        }
+
+        Node first = null;
+        Node last = null;
+        int count = 0;
+        for (Object event : events) {
+            if (event == null) {
+                throw new IllegalArgumentException("Event must not be null.");
+            }
+            final Node node = new Node(CODE_FIRE_EVENT, event, -1);
+            node.external = !isHandlerThread();
+            if (first == null) {
+                first = node;
+            } else {
+                Node.NEXT.lazySet(last, node);
+            }
+            last = node;
+            count++;
+        }
+        if (count > 0) {
+            enqueue(first, last, count);
+        }
+    }
+
+    //-- implementation
+
+    @Override
+    void schedule(int code, Object event, int state, long payload) {
+        if (code == CODE_FIRE_EVENT && isCoalescible(event.getClass())) {
+            scheduleCoalescible(event);
+            return;
+        }
+        if (reserve(code, event, state)) {
+            final Node node = new Node(code, event, state);
+            node.payload = payload;
+            node.external = !isHandlerThread();
+            enqueue(node, node, 1);
+        }
+        if (code == CODE_TRANSITION) {
+            onTransitionScheduled();
+        }
+    }
+
+    /** Must be called after a transition has been put into the queue. */
+    final void onTransitionScheduled() {
+        // pending events must not be coalesced with events fired after this transition
+        mTransitionsCount.incrementAndGet();
+    }
+
+    private void scheduleCoalescible(Object event) {
+        final Class<?> eventType = event.getClass();
+        final int transitionsCount = mTransitionsCount.get();
+        final CoalescedNode pending = mCoalesced.get(eventType);
+        if (pending != null && pending.transitionsCount == transitionsCount
+                && pending.replace(event)) {
+            onEventCoalesced();
+            return;
+        }
+        if (reserve(CODE_FIRE_EVENT, event, -1)) {
+            final CoalescedNode node = new CoalescedNode(event, transitionsCount);
+            node.external = !isHandlerThread();
+            mCoalesced.put(eventType, node);
+            enqueue(node, node, 1);
+        }
+    }
+
+    @Override
+    int writeTasks(ByteBuffer buffer, EventCodec codec) {
+        int count = 0;
+        final TaskQueue resumed = mResumed;
+        if (resumed != null) {
+            for (int i = 0, size = resumed.size(); i < size; i++) {
+                writeTask(buffer, codec, CODE_FIRE_EVENT, resumed.eventAt(i), -1, 0);
+                count++;
+            }
+        }
+        for (Node node = mTaskQueue.peek(); node != null; node = node.next) {
+            final Object event = node instanceof CoalescedNode
+                    ? ((CoalescedNode) node).latest : node.event;
+            writeTask(buffer, codec, node.code, event, node.state, node.payload);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    boolean isIdle() {
+        return mWip.get() == 0;
+    }
+
+    @Override
+    void restoreTasks(TaskQueue tasks) {
+        final int count = tasks.size();
+        Node first = null;
+        Node last = null;
+        for (int i = 0; i < count; i++) {
+            final Node node = new Node(tasks.codeAt(i), tasks.eventAt(i), tasks.stateAt(i));
+            node.payload = tasks.payloadAt(i);
+            if (first == null) {
+                first = node;
+            } else {
+                Node.NEXT.lazySet(last, node);
+            }
+            last = node;
+        }
+        if (count > 0) {
+            if (getQueueLimit() != UNLIMITED) {
+                mPending.addAndGet(count);
+            }
+            enqueue(first, last, count);
+        }
+    }
+
+    @Override
+    boolean hasPendingTasks() {
+        return mTaskQueue.peek() != null || (mResumed != null && !mResumed.isEmpty());
+    }
+
+    @Override
+    void resumeDeferred(TaskQueue deferred) {
+        // nodes cannot be put in front of the lock-free queue, so they are kept aside
+        if (mResumed == null) {
+            mResumed = new TaskQueue(TaskQueue.DEFAULT_CAPACITY);
+        }
+        mResumed.prependAll(deferred);
+    }
+
+    @Override
+    boolean canBlockProducers() {
+        return true;
+    }
+
+    /**
+     * Reserves space for a task in a limited queue according to the overflow policy.
+     * Can be called from any thread.
+     *
+     * @return <code>true</code> if the task can be put into the queue,
+     *         <code>false</code> if it was dropped
+     */
+    final boolean reserve(int code, Object event, int state) {
+        final int limit = getQueueLimit();
+        if (limit == UNLIMITED) {
+            return true;
+        }
+        if (!isEventTask(code)) {
+            mPending.incrementAndGet(); // transitions are always accepted
+            return true;
+        }
+        switch (getOverflowPolicy()) {
+            case OverflowPolicy.DropOldest:
+                if (mPending.incrementAndGet() > limit) {
+                    mToDrop.incrementAndGet();
+                }
+                return true;
+
+            case OverflowPolicy.Block:
+                for (;;) {
+                    final int pending = mPending.get();
+                    if (pending < limit || mDrainer == Thread.currentThread()
+                            || mWip.get() == 0) {
+                        if (mPending.compareAndSet(pending, pending + 1)) {
+                            return true;
+                        }
+                    } else {
+                        awaitSpace(limit);
+                    }
+                }
+
+            default:
+                for (;;) {
+                    final int pending = mPending.get();
+                    if (pending >= limit) {
+                        dropOrReject(code == CODE_FIRE_EVENT_CODE
+                                ? Integer.valueOf(state) : event);
+                        return false;
+                    }
+                    if (mPending.compareAndSet(pending, pending + 1)) {
+                        return true;
+                    }
+                }
+        }
+    }
+
+    /**
+     * Puts given chain of nodes into the queue. Can be called from any thread.
+     *
+     * @param first first node of the chain
+     * @param last  last node of the chain
+     * @param count number of nodes in the chain
+     */
+    final void enqueue(Node first, Node last, int count) {
+        mTaskQueue.offer(first, last);
+        final int wip = mWip.getAndAdd(count);
+        final MachineMetrics metrics = getMetrics();
+        if (metrics != null) {
+            metrics.onQueueDepth(wip + count);
+        }
+        if (wip == 0) {
+            startDraining();
+        }
+    }
+
+    /**
+     * Called by the thread which became the owner of the queue. By default the
+     * queue is drained in the calling thread.
+     */
+    void startDraining() {
+        drainTaskQueue();
+    }
+
+    /** Gives up the ownership of the queue, so that next producer becomes the drainer. */
+    final void releaseTaskQueue() {
+        mHandlerThread = null;
+        mDrainer = null;
+        mWip.set(0);
+        signalSpace(); // blocked producers can take over the queue
+    }
+
+    @Override
+    void onCurrentStateChanged(int state) {
+        mCurrentState = state;
+    }
+
+    /** Processes all queued tasks. Must only be called by the owner of the queue. */
+    final void drainTaskQueue() {
+        drainTaskQueue(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Processes queued tasks, but not more than given number of them. Must only be
+     * called by the owner of the queue.
+     *
+     * @param maxTasks  maximum number of tasks to process
+     * @return <code>true</code> if the queue is drained and released, <code>false</code>
+     *         if tasks are left and the caller still owns the queue
+     */
+    final boolean drainTaskQueue(int maxTasks) {
+        final boolean limited = getQueueLimit() != UNLIMITED;
+        mDrainer = Thread.currentThread();
+        mHandlerThread = mDrainer;
+        int missed = 1;
+        int processed = 0;
+        for (;;) {
+            Node node;
+            for (;;) {
+                if (processed == maxTasks) {
+                    mHandlerThread = null;
+                    mDrainer = null; // ownership is kept, so that no producer takes over
+                    return false;
+                }
+                final TaskQueue resumed = mResumed;
+                if (resumed != null && !resumed.isEmpty()) {
+                    final Object event = resumed.headEvent();
+                    resumed.removeHead();
+                    processed++;
+                    processResumed(event);
+                    continue;
+                }
+                if ((node = mTaskQueue.poll()) == null) {
+                    break;
+                }
+                if (limited && release(node)) {
+                    continue;
+                }
+                processed++;
+                process(node);
+            }
+            // events fired by observers are given from outside and must be journaled
+            mHandlerThread = null;
+            try {
+                // queue is still owned, so that observers are never called concurrently,
+                // and observers firing into a full queue are not blocked as producers
+                notifyDrained();
+            } catch (RuntimeException | Error e) {
+                releaseTaskQueue();
+                throw e;
+            }
+            mDrainer = null;
+            missed = mWip.addAndGet(-missed);
+            final MachineMetrics metrics = getMetrics();
+            if (metrics != null) {
+                metrics.onQueueDepth(missed);
+            }
+            if (missed == 0) {
+                return true;
+            }
+            mDrainer = Thread.currentThread();
+            mHandlerThread = mDrainer;
+        }
+    }
+
+    /** Called for a dropped task, which is not going to be processed. */
+    void discard(Node node) {
+        takeEvent(node);
+    }
+
+    /** Takes the event out of given polled node. Must only be called by the drainer. */
+    final Object takeEvent(Node node) {
+        if (node instanceof CoalescedNode) {
+            final CoalescedNode coalesced = (CoalescedNode) node;
+            final Object event = coalesced.take();
+            mCoalesced.remove(event.getClass(), coalesced);
+            return event;
+        }
+        final Object event = node.event;
+        node.event = null;
+        return event;
+    }
+
+    /** Returns true if called by a handler method, but not by an observer. */
+    final boolean isHandlerThread() {
+        return mHandlerThread == Thread.currentThread();
+    }
+
+    /** Journals the task of given node, if needed, and executes it. */
+    final void execute(Node node, Object event) {
+        if (node.external) {
+            final EventJournal journal = getJournal();
+            if (journal != null) {
+                journal.append(node.code, event, node.state, node.payload);
+            }
+        }
+        execute(node.code, event, node.state, node.payload);
+    }
+
+    /** Executes the task of given node. */
+    void process(Node node) {
+        final Object event = takeEvent(node);
+        try {
+            execute(node, event);
+        } catch (RuntimeException | Error e) {
+            releaseTaskQueue();
+            throw e;
+        }
+    }
+
+    /** Executes a deferred event resumed after a transition. */
+    void processResumed(Object event) {
+        try {
+            execute(CODE_FIRE_EVENT, event, -1);
+        } catch (RuntimeException | Error e) {
+            releaseTaskQueue();
+            throw e;
+        }
+    }
+
+    /**
+     * Frees space of a polled node in a limited queue.
+     *
+     * @return <code>true</code> if the node was dropped and must not be processed
+     */
+    private boolean release(Node node) {
+        mPending.decrementAndGet();
+        signalSpace();
+        if (isEventTask(node.code)) {
+            int toDrop;
+            while ((toDrop = mToDrop.get()) > 0) {
+                if (mToDrop.compareAndSet(toDrop, toDrop - 1)) {
+                    onOldestDropped();
+                    discard(node);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void signalSpace() {
+        if (mBlockedCount > 0) {
+            synchronized (mSpaceLock) {
+                mSpaceLock.notifyAll();
+            }
+        }
+    }
+
+    private void awaitSpace(int limit) {
+        synchronized (mSpaceLock) {
+            mBlockedCount++;
+            try {
+                while (mPending.get() >= limit && mWip.get() != 0) {
+                    mSpaceLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for queue space", e);
+            } finally {
+                mBlockedCount--;
+            }
+        }
+    }
+
+    //region Inner classes
+
+    static class Node {
+
+        private static final AtomicReferenceFieldUpdater<Node, Node> NEXT
+                = AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+        public final int code;
+        public final int state;
+        public Object event;
+        public long payload; // of event codes
+        public boolean external; // given to the machine from outside
+        private volatile Node next;
+
+        Node(int code, Object event, int state) {
+            this.code = code;
+            this.event = event;
+            this.state = state;
+        }
+    }
+
+    /** Node of a coalescible event, which can be replaced until the drainer takes it. */
+    private static final class CoalescedNode extends Node {
+
+        private static final AtomicReferenceFieldUpdater<CoalescedNode, Object> LATEST
+                = AtomicReferenceFieldUpdater.newUpdater(
+                        CoalescedNode.class, Object.class, "latest");
+
+        public final int transitionsCount;
+        private volatile Object latest;
+
+        CoalescedNode(Object event, int transitionsCount) {
+            super(CODE_FIRE_EVENT, null, -1);
+            this.transitionsCount = transitionsCount;
+            this.latest = event;
+        }
+
+        /** Replaces pending event. Fails, if the event has already been taken. */
+        public boolean replace(Object event) {
+            Object pending;
+            while ((pending = latest) != null) {
+                if (LATEST.compareAndSet(this, pending, event)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Object take() {
+            return LATEST.getAndSet(this, null);
+        }
+    }
+
+    /**
+     * Unbounded lock-free multi-producer single-consumer queue. Polled node becomes
+     * the new head of the queue, thus nodes cannot be reused.
+     */
+    private static final class MpscQueue {
+
+        private final AtomicReference<Node> mTail;
+        private Node mHead;
+
+        MpscQueue() {
+            final Node stub = new Node(-1, null, -1);
+            mHead = stub;
+            mTail = new AtomicReference<>(stub);
+        }
+
+        /** Appends already linked chain of nodes. Can be called from any thread. */
+        public void offer(Node first, Node last) {
+            final Node prev = mTail.getAndSet(last);
+            Node.NEXT.lazySet(prev, first);
+        }
+
+        /** Returns first pending node. Must only be called by the consumer. */
+        public Node peek() {
+            return mHead.next;
+        }
+
+        /** Must only be called by the consumer. */
+        public Node poll() {
+            final Node next = mHead.next;
+            if (next != null) {
+                mHead = next;
+            }
+            return next;
+        }
+    }
+
+    //endregion
+
+}
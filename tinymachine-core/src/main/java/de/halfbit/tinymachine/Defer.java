@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Apply this annotation to handler classes to defer events of given types in given
+ * state. Deferred events are not delivered to any handler method, including the
+ * ones of <code>StateHandler.STATE_ANY</code>. They are parked by the machine and put
+ * back in front of pending tasks in their original order, once the machine has
+ * transitioned into another state and its <code>OnEntry</code> handlers were called.
+ * If the new state defers them too, they are parked again.
+ * <p>
+ *     Deferrals are resolved together with handler methods. A state cannot both defer
+ *     and handle the same event type. Nested states defer events of their parents,
+ *     unless they handle them. Use {@link Defers} to defer events in multiple states.
+ *
+ * <pre>
+ * &#64;Defer(state = STATE_CONNECTING, events = {SendEvent.class, CloseEvent.class})
+ * public class ConnectionHandler { ... }
+ * </pre>
+ *
+ * @author Sergej Shafarenka
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Defer {
+
+    /**
+     * Defines in which state events are deferred
+     * @return  a state constant
+     */
+    int state();
+
+    /**
+     * Defines types of deferred events
+     * @return  types of events
+     */
+    Class<?>[] events();
+
+}
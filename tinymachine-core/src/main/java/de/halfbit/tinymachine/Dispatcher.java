@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+/**
+ * Reflection-free dispatcher of handler methods. Implementations of this interface
+ * are generated by <code>tinymachine-compiler</code> annotation processor for every
+ * class declaring {@link de.halfbit.tinymachine.StateHandler} methods. Generated class
+ * has the name of handler class with <code>$$Dispatcher</code> suffix.
+ *
+ * <p>
+ *     <code>TinyMachine</code> picks up generated dispatcher automatically. If there is
+ *     no dispatcher for given handler class, it falls back to reflection. You never need
+ *     to implement this interface manually.
+ *
+ * @author Sergej Shafarenka
+ */
+public interface Dispatcher {
+
+    /** Suffix appended to the name of handler class to get the name of its dispatcher. */
+    public static final String SUFFIX = "$$Dispatcher";
+
+    /** Receives handler method declarations from a dispatcher. */
+    public static interface Registry {
+
+        /**
+         * Declares handler method.
+         *
+         * @param state     the state in which handler method is active
+         * @param type      one of <code>StateHandler.Type</code> constants
+         * @param eventType the type of event for <code>Type.OnEvent</code> handlers,
+         *                  <code>null</code> otherwise
+         * @param index     index of handler method to be given to
+         *                  {@link #dispatch(int, Object, Object, TinyMachine)}
+         */
+        void add(int state, int type, Class<?> eventType, int index);
+
+        /**
+         * Declares handler method receiving event codes.
+         *
+         * @param state     the state in which handler method is active
+         * @param code      the code of event
+         * @param index     index of handler method to be given to
+         *                  {@link #dispatchCode(int, Object, long, TinyMachine)}
+         */
+        void addCode(int state, int code, int index);
+    }
+
+    /**
+     * Declares all handler methods known to this dispatcher.
+     *
+     * @param registry  the registry to declare handler methods in
+     */
+    void register(Registry registry);
+
+    /**
+     * Calls handler method with given index.
+     *
+     * @param index     index of handler method as declared in {@link #register(Registry)}
+     * @param handler   the handler instance
+     * @param event     the event for <code>Type.OnEvent</code> handlers, <code>null</code>
+     *                  otherwise
+     * @param tm        the machine delivering the event
+     * @throws Exception    exception thrown by handler method
+     */
+    void dispatch(int index, Object handler, Object event, TinyMachine tm) throws Exception;
+
+    /**
+     * Calls handler method receiving event codes with given index.
+     *
+     * @param index     index of handler method as declared in {@link #register(Registry)}
+     * @param handler   the handler instance
+     * @param payload   the payload given together with event code
+     * @param tm        the machine delivering the event
+     * @throws Exception    exception thrown by handler method
+     */
+    void dispatchCode(int index, Object handler, long payload, TinyMachine tm) throws Exception;
+
+}
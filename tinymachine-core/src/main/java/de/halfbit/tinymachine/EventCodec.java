@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes events into snapshots and reads them back. Codec is responsible for telling
+ * event types apart, for instance by writing a type tag in front of every event.
+ *
+ * @see TinyMachine#writeSnapshot(ByteBuffer, EventCodec)
+ * @author Sergej Shafarenka
+ */
+public interface EventCodec {
+
+    /** Writes given event at the current position of the buffer. */
+    void encode(Object event, ByteBuffer buffer);
+
+    /** Reads an event written by {@link #encode(Object, ByteBuffer)}. */
+    Object decode(ByteBuffer buffer);
+
+}
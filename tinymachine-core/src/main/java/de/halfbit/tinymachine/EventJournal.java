@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of tasks accepted by a machine. Events and transitions given to
+ * the machine from outside are appended before they are processed. Tasks fired by
+ * handler methods are not journaled, because replaying the journal creates them again.
+ * After a crash the machine is rebuilt by replaying its journal, optionally starting
+ * at the offset of a snapshot.
+ *
+ * <p>
+ *     Records are collected in a buffer and written to the file in group commits,
+ *     when the buffer is full or when the sync interval has elapsed. Data is forced to
+ *     the disk at most once per sync interval, so that durability does not cap the
+ *     throughput. Records appended within the last interval can be lost in a crash.
+ *     Set interval to zero to force every record to the disk. The interval is checked
+ *     on every append, call {@link #sync()} periodically, if the machine can stay idle
+ *     for a long time.
+ *
+ * <p>
+ *     Every record is written as an int length of the rest of the record, a code byte,
+ *     a state int and, except for transitions, the event written by the codec. Event
+ *     codes are stored in the state int and followed by a long payload.
+ *
+ * <p>
+ *     Concurrent machines journal tasks in the order they are processed. Replaying
+ *     processes every task together with the tasks fired by its handlers, before the
+ *     next task is replayed. If other tasks were queued in between originally, the
+ *     order of processing during replay differs.
+ *
+ * @see TinyMachine#setJournal(EventJournal)
+ * @author Sergej Shafarenka
+ */
+public final class EventJournal implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int REPLAY_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int HEADER_SIZE = 4;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final EventCodec mCodec;
+
+    private ByteBuffer mBuffer;
+    private long mPosition;         // file position of the first buffered byte
+    private long mSyncIntervalNanos;
+    private long mLastSyncNanos;
+    private boolean mDirty;         // written, but not forced to the disk
+
+    /**
+     * Opens journal file, or creates a new one. Call {@link #replay(TinyMachine, long)}
+     * before appending to an existing journal.
+     *
+     * @param file  journal file
+     * @param codec codec writing and reading events
+     */
+    public EventJournal(File file, EventCodec codec) throws IOException {
+        if (codec == null) {
+            throw new IllegalArgumentException("Codec must not be null.");
+        }
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        mCodec = codec;
+        mBuffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+        mPosition = mChannel.size();
+        mSyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        mLastSyncNanos = System.nanoTime();
+    }
+
+    //-- public api
+
+    /**
+     * Sets maximum time between forcing appended records to the disk. Default is
+     * 100 milliseconds.
+     *
+     * @param interval  interval, zero forces every record
+     * @param unit      unit of the interval
+     * @return          this instance
+     */
+    public synchronized EventJournal setSyncInterval(long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Interval must not be negative: " + interval);
+        }
+        mSyncIntervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * Returns the offset following the last appended record. Save this offset together
+     * with a snapshot to replay only records appended after the snapshot.
+     */
+    public synchronized long getOffset() {
+        return mPosition + mBuffer.position();
+    }
+
+    /**
+     * Replays records starting at given offset into given machine. The machine must be
+     * configured the same way as the journaled machine, but must not use this journal
+     * yet. Incomplete record at the end of the journal, left by a crash, is truncated.
+     *
+     * @param machine   machine to replay records into
+     * @param offset    offset to start at, zero or an offset saved with a snapshot
+     * @return          number of replayed records
+     */
+    public synchronized int replay(TinyMachine machine, long offset) throws IOException {
+        if (machine.getJournal() == this) {
+            throw new IllegalStateException("Machine must not journal while replaying.");
+        }
+        if (mBuffer.position() > 0) {
+            throw new IllegalStateException("Journal must be replayed before appending.");
+        }
+        final long size = mChannel.size();
+        long position = offset;
+        int count = 0;
+        while (position < size) {
+            final long segmentSize = Math.min(REPLAY_SEGMENT_SIZE, size - position);
+            final MappedByteBuffer segment =
+                    mChannel.map(FileChannel.MapMode.READ_ONLY, position, segmentSize);
+            final int replayed = replaySegment(segment, machine);
+            if (segment.position() == 0) {
+                if (segmentSize < REPLAY_SEGMENT_SIZE) {
+                    break; // incomplete record at the end
+                }
+                throw new IOException("Journal record exceeds segment size at: " + position);
+            }
+            position += segment.position();
+            count += replayed;
+        }
+        if (position < size) {
+            mChannel.truncate(position);
+        }
+        mPosition = position;
+        return count;
+    }
+
+    /** Writes buffered records and forces them to the disk. */
+    public synchronized void sync() throws IOException {
+        writeBuffer();
+        if (mDirty) {
+            mChannel.force(false);
+            mDirty = false;
+        }
+        mLastSyncNanos = System.nanoTime();
+    }
+
+    /** Syncs buffered records and closes the file. */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            mFile.close();
+        }
+    }
+
+    //-- implementation
+
+    /** Appends a record. Called by the machine before the task is processed. */
+    synchronized void append(int code, Object event, int state, long payload) {
+        try {
+            for (;;) {
+                final int start = mBuffer.position();
+                try {
+                    mBuffer.putInt(0);
+                    TinyMachine.writeTask(mBuffer, mCodec, code, event, state, payload);
+                    mBuffer.putInt(start, mBuffer.position() - start - HEADER_SIZE);
+                    break;
+                } catch (BufferOverflowException e) {
+                    mBuffer.position(start);
+                    if (start == 0) {
+                        // single record does not fit, grow the buffer
+                        mBuffer = ByteBuffer.allocateDirect(mBuffer.capacity() << 1);
+                    } else {
+                        writeBuffer();
+                    }
+                }
+            }
+            if (System.nanoTime() - mLastSyncNanos >= mSyncIntervalNanos) {
+                sync();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot append to journal", e);
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if (mBuffer.position() == 0) {
+            return;
+        }
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mPosition += mChannel.write(mBuffer, mPosition);
+        }
+        mBuffer.clear();
+        mDirty = true;
+    }
+
+    /** Replays complete records of the segment and leaves its position after them. */
+    private int replaySegment(ByteBuffer segment, TinyMachine machine) {
+        int count = 0;
+        while (segment.remaining() >= HEADER_SIZE) {
+            final int start = segment.position();
+            final int length = segment.getInt();
+            if (length < 5 || length > segment.remaining()) {
+                segment.position(start);
+                break; // record continues in the next segment or is incomplete
+            }
+            final int end = segment.position() + length;
+            final int code = segment.get();
+            final int state = segment.getInt();
+            final long payload = code == TinyMachine.CODE_FIRE_EVENT_CODE
+                    ? segment.getLong() : 0;
+            final Object event = TinyMachine.readTaskEvent(segment, mCodec, code);
+            segment.position(end);
+            switch (code) {
+                case TinyMachine.CODE_FIRE_EVENT:
+                    machine.fireEvent(event);
+                    break;
+                case TinyMachine.CODE_FIRE_EVENT_CODE:
+                    machine.fireEventCode(state, payload);
+                    break;
+                case TinyMachine.CODE_TRANSITION:
+                    machine.transitionTo(state);
+                    break;
+                default:
+                    machine.onTimeout(event, true, state);
+                    break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,565 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+
+/**
+ * Parsed handler methods of a handler class. Table is built once per handler class
+ * and is shared by all <code>TinyMachine</code> instances using this class. Once built
+ * table is never modified and can be safely used from multiple threads.
+ *
+ * <p>
+ *     Handler methods are grouped by event type, so that a single hash map lookup per
+ *     event resolves handlers of all states. If handler class uses a small range of states,
+ *     handlers of an event type are stored in a dense array indexed by state. Otherwise
+ *     they are stored in a sparse array. Transitions declared
+ *     with {@link Transition} and deferrals declared with {@link Defer} are stored in
+ *     the same table as handler methods.
+ *
+ * <p>
+ *     If handler class declares {@link StateHierarchy}, handlers of parent states are
+ *     copied into nested states not handling same events. Transition paths between
+ *     states are computed when used first time and cached.
+ *
+ * @author Sergej Shafarenka
+ */
+final class HandlerTable {
+
+    private static final ConcurrentHashMap<Class<?>, HandlerTable> CACHE
+            = new ConcurrentHashMap<>();
+
+    private static final int MAX_DENSE_STATES = 64;
+    private static final int MAX_CACHED_PATH_STATES = 128;
+    private static final int[] NO_STATES = new int[0];
+
+    private final IntMap<HashMap<Class<?>, Invoker>> mInvokers;
+    private final IntMap<IntMap<Invoker>> mCodeInvokers;
+    private final HashMap<Class<?>, EventInvokers> mEventInvokers;
+    private final boolean mDense;
+    private final IntMap<int[]> mAncestors; // state and its parents, innermost first
+    private final TransitionPath[] mPaths;
+
+    /**
+     * Returns handler table for given handler class. Table gets created
+     * when requested first time and cached afterwards.
+     */
+    public static HandlerTable forClass(Class<?> handlerClass) {
+        HandlerTable table = CACHE.get(handlerClass);
+        if (table == null) {
+            table = new HandlerTable(handlerClass);
+            HandlerTable cached = CACHE.putIfAbsent(handlerClass, table);
+            if (cached != null) {
+                table = cached;
+            }
+        }
+        return table;
+    }
+
+    /** Builds new table. Use {@link #forClass(Class)} to get a cached table. */
+    HandlerTable(Class<?> handlerClass) {
+        mInvokers = new IntMap<>();
+        mCodeInvokers = new IntMap<>();
+
+        final Dispatcher dispatcher = findDispatcher(handlerClass);
+        if (dispatcher != null) {
+            dispatcher.register(new Dispatcher.Registry() {
+                @Override
+                public void add(int state, int type, Class<?> eventType, int index) {
+                    addInvoker(state, getEventType(type, eventType),
+                            Invoker.forDispatcher(dispatcher, index), "#" + index);
+                }
+
+                @Override
+                public void addCode(int state, int code, int index) {
+                    addCodeInvoker(state, code,
+                            Invoker.forDispatcherCode(dispatcher, index), "#" + index);
+                }
+            });
+        } else {
+            addReflectedInvokers(handlerClass);
+        }
+        addTransitionInvokers(handlerClass);
+        addDeferInvokers(handlerClass);
+
+        final StateHierarchy hierarchy = handlerClass.getAnnotation(StateHierarchy.class);
+        if (hierarchy != null) {
+            mAncestors = createAncestors(hierarchy);
+            inheritInvokers();
+            final int size = mAncestors.size() + 1; // last slot is for unknown states
+            mPaths = mAncestors.size() > MAX_CACHED_PATH_STATES
+                    ? null : new TransitionPath[size * size];
+        } else {
+            mAncestors = null;
+            mPaths = null;
+        }
+        int minState = Integer.MAX_VALUE;
+        int maxState = Integer.MIN_VALUE;
+        for (int i = 0, size = mInvokers.size(); i < size; i++) {
+            final int state = mInvokers.keyAt(i);
+            if (state != StateHandler.STATE_ANY) {
+                minState = Math.min(minState, state);
+                maxState = Math.max(maxState, state);
+            }
+        }
+        mDense = minState > maxState // STATE_ANY handlers only
+                || (long) maxState - minState + 1 <= MAX_DENSE_STATES;
+        mEventInvokers = createEventInvokers(mInvokers, mDense, minState, maxState);
+    }
+
+    /**
+     * Returns invoker of handler method for given event type in given state or
+     * <code>null</code> if there is no such method.
+     */
+    public Invoker getInvoker(int state, Class<?> eventType) {
+        final EventInvokers invokers = mEventInvokers.get(eventType);
+        return invokers == null ? null : invokers.get(state);
+    }
+
+    /**
+     * Returns invokers of handler methods for given event type in all states or
+     * <code>null</code> if no state handles it. Resolve it once per event and take
+     * invokers of current state and of <code>STATE_ANY</code> from it.
+     */
+    public EventInvokers getEventInvokers(Class<?> eventType) {
+        return mEventInvokers.get(eventType);
+    }
+
+    /**
+     * Returns invoker of handler method for given event code in given state or
+     * <code>null</code> if there is no such method.
+     */
+    public Invoker getCodeInvoker(int state, int code) {
+        final IntMap<Invoker> callbacks = mCodeInvokers.get(state);
+        return callbacks == null ? null : callbacks.get(code);
+    }
+
+    /**
+     * Returns handlers to be called when machine goes from one state into another or
+     * <code>null</code> if handler class declares no {@link StateHierarchy}.
+     */
+    public TransitionPath getTransitionPath(int fromState, int toState) {
+        if (mAncestors == null) {
+            return null;
+        }
+        final int fromIndex = mAncestors.indexOfKey(fromState);
+        final int toIndex = mAncestors.indexOfKey(toState);
+        if (mPaths == null) {
+            return createTransitionPath(fromIndex, toIndex);
+        }
+        final int size = mAncestors.size() + 1;
+        final int slot = (fromIndex < 0 ? size - 1 : fromIndex) * size
+                + (toIndex < 0 ? size - 1 : toIndex);
+        TransitionPath path = mPaths[slot];
+        if (path == null) {
+            // racing threads create equal paths, which are immutable and safe to publish
+            path = createTransitionPath(fromIndex, toIndex);
+            mPaths[slot] = path;
+        }
+        return path;
+    }
+
+    /** Returns true if first state contains second state at any depth. */
+    public boolean isParent(int parentState, int state) {
+        if (mAncestors == null) {
+            return false;
+        }
+        final int[] ancestors = mAncestors.get(state);
+        if (ancestors != null) {
+            for (int i = 1; i < ancestors.length; i++) {
+                if (ancestors[i] == parentState) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    boolean isDense() {
+        return mDense;
+    }
+
+    //-- implementation
+
+    private void addReflectedInvokers(Class<?> handlerClass) {
+        final Method[] methods = handlerClass.getMethods();
+        Class<?>[] params;
+        StateHandler ann;
+        Class<?> eventType;
+        for (Method method : methods) {
+            if (method.isBridge() || method.isSynthetic()) {
+                continue;
+            }
+            ann = method.getAnnotation(StateHandler.class);
+            if (ann != null && ann.code() != StateHandler.NO_CODE) {
+                if (ann.type() != Type.OnEvent) {
+                    throw new IllegalArgumentException(
+                            "Only OnEvent handler methods can receive event codes: "
+                                    + method.getName());
+                }
+                addCodeInvoker(ann.state(), ann.code(), Invoker.forCodeMethod(method),
+                        method.getName());
+            } else if (ann != null) {
+                if (ann.type() == Type.OnEvent) {
+                    params = method.getParameterTypes();
+                    if (params.length < 1) {
+                        throw new IllegalArgumentException(
+                                "Expect event parameter in @StateEventHandler method: "
+                                        + method.getName());
+                    }
+                    eventType = params[0];
+                } else {
+                    eventType = null;
+                }
+                addInvoker(ann.state(), getEventType(ann.type(), eventType),
+                        Invoker.forMethod(method, ann.type() == Type.OnEvent), method.getName());
+            }
+        }
+    }
+
+    private void addTransitionInvokers(Class<?> handlerClass) {
+        final Transition transition = handlerClass.getAnnotation(Transition.class);
+        if (transition != null) {
+            addTransitionInvoker(transition);
+        }
+        final Transitions transitions = handlerClass.getAnnotation(Transitions.class);
+        if (transitions != null) {
+            for (Transition item : transitions.value()) {
+                addTransitionInvoker(item);
+            }
+        }
+    }
+
+    private void addTransitionInvoker(Transition transition) {
+        if (transition.to() == StateHandler.STATE_ANY) {
+            throw new IllegalArgumentException("Cannot transition to STATE_ANY");
+        }
+        // handlers of current state are called after STATE_ANY ones, they must see the old state
+        final boolean queued = transition.from() == StateHandler.STATE_ANY;
+        addInvoker(transition.from(), transition.on(),
+                Invoker.forTransition(transition.to(), queued),
+                "@Transition(on=" + transition.on().getName() + ")");
+    }
+
+    private void addDeferInvokers(Class<?> handlerClass) {
+        final Defer defer = handlerClass.getAnnotation(Defer.class);
+        if (defer != null) {
+            addDeferInvokers(defer);
+        }
+        final Defers defers = handlerClass.getAnnotation(Defers.class);
+        if (defers != null) {
+            for (Defer item : defers.value()) {
+                addDeferInvokers(item);
+            }
+        }
+    }
+
+    private void addDeferInvokers(Defer defer) {
+        if (defer.state() == StateHandler.STATE_ANY) {
+            throw new IllegalArgumentException("Cannot defer events in STATE_ANY");
+        }
+        for (Class<?> eventType : defer.events()) {
+            addInvoker(defer.state(), eventType, Invoker.DEFER,
+                    "@Defer(on=" + eventType.getName() + ")");
+        }
+    }
+
+    private static Dispatcher findDispatcher(Class<?> handlerClass) {
+        final Class<?> dispatcherClass;
+        try {
+            dispatcherClass = Class.forName(handlerClass.getName() + Dispatcher.SUFFIX,
+                    true, handlerClass.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null; // no generated dispatcher, use reflection
+        }
+        try {
+            return (Dispatcher) dispatcherClass.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Cannot instantiate dispatcher: "
+                    + dispatcherClass.getName(), e);
+        }
+    }
+
+    private static Class<?> getEventType(int type, Class<?> eventType) {
+        switch (type) {
+            case Type.OnEntry: return OnEntry.class;
+            case Type.OnExit: return OnExit.class;
+            case Type.OnEvent: return eventType;
+            default: throw new IllegalArgumentException("Unsupported event type: " + type);
+        }
+    }
+
+    private IntMap<int[]> createAncestors(StateHierarchy hierarchy) {
+        final IntMap<Integer> parents = new IntMap<>();
+        for (StateHierarchy.Parent parent : hierarchy.value()) {
+            if (parent.state() == StateHandler.STATE_ANY
+                    || parent.parent() == StateHandler.STATE_ANY) {
+                throw new IllegalArgumentException("STATE_ANY cannot be nested");
+            }
+            if (parents.get(parent.state()) != null) {
+                throw new IllegalArgumentException("Duplicate parent of state: "
+                        + parent.state());
+            }
+            parents.put(parent.state(), parent.parent());
+        }
+
+        final IntMap<int[]> ancestors = new IntMap<>();
+        for (int i = 0, size = parents.size(); i < size; i++) {
+            addAncestors(ancestors, parents, parents.keyAt(i));
+            addAncestors(ancestors, parents, parents.valueAt(i));
+        }
+        for (int i = 0, size = mInvokers.size(); i < size; i++) {
+            if (mInvokers.keyAt(i) != StateHandler.STATE_ANY) {
+                addAncestors(ancestors, parents, mInvokers.keyAt(i));
+            }
+        }
+        for (int i = 0, size = mCodeInvokers.size(); i < size; i++) {
+            if (mCodeInvokers.keyAt(i) != StateHandler.STATE_ANY) {
+                addAncestors(ancestors, parents, mCodeInvokers.keyAt(i));
+            }
+        }
+        return ancestors;
+    }
+
+    private static void addAncestors(IntMap<int[]> ancestors, IntMap<Integer> parents,
+                                     int state) {
+        if (ancestors.get(state) != null) {
+            return;
+        }
+        final ArrayList<Integer> chain = new ArrayList<>();
+        Integer current = state;
+        while (current != null) {
+            if (chain.contains(current)) {
+                throw new IllegalArgumentException("State cannot be its own parent: "
+                        + current);
+            }
+            chain.add(current);
+            current = parents.get(current);
+        }
+        final int[] states = new int[chain.size()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = chain.get(i);
+        }
+        ancestors.put(state, states);
+    }
+
+    /** Copies event handlers of parent states into nested states, nearest parent first. */
+    private void inheritInvokers() {
+        for (int i = 0, size = mAncestors.size(); i < size; i++) {
+            final int[] ancestors = mAncestors.valueAt(i);
+            HashMap<Class<?>, Invoker> callbacks = mInvokers.get(ancestors[0]);
+            for (int j = 1; j < ancestors.length; j++) {
+                final HashMap<Class<?>, Invoker> inherited = mInvokers.get(ancestors[j]);
+                if (inherited == null) {
+                    continue;
+                }
+                for (Map.Entry<Class<?>, Invoker> entry : inherited.entrySet()) {
+                    final Class<?> eventType = entry.getKey();
+                    if (eventType == OnEntry.class || eventType == OnExit.class) {
+                        continue; // called along transition path
+                    }
+                    if (callbacks == null) {
+                        callbacks = new HashMap<>();
+                        mInvokers.put(ancestors[0], callbacks);
+                    }
+                    if (!callbacks.containsKey(eventType)) {
+                        callbacks.put(eventType, entry.getValue());
+                    }
+                }
+            }
+
+            IntMap<Invoker> codeCallbacks = mCodeInvokers.get(ancestors[0]);
+            for (int j = 1; j < ancestors.length; j++) {
+                final IntMap<Invoker> inherited = mCodeInvokers.get(ancestors[j]);
+                if (inherited == null) {
+                    continue;
+                }
+                for (int k = 0, count = inherited.size(); k < count; k++) {
+                    if (codeCallbacks == null) {
+                        codeCallbacks = new IntMap<>();
+                        mCodeInvokers.put(ancestors[0], codeCallbacks);
+                    }
+                    if (codeCallbacks.get(inherited.keyAt(k)) == null) {
+                        codeCallbacks.put(inherited.keyAt(k), inherited.valueAt(k));
+                    }
+                }
+            }
+        }
+    }
+
+    private TransitionPath createTransitionPath(int fromIndex, int toIndex) {
+        final int[] from = fromIndex < 0 ? NO_STATES : mAncestors.valueAt(fromIndex);
+        final int[] to = toIndex < 0 ? NO_STATES : mAncestors.valueAt(toIndex);
+
+        // states below the nearest common parent are left and entered
+        int exitCount = from.length;
+        int entryCount = to.length;
+        search:
+        for (int i = 0; i < from.length; i++) {
+            for (int j = 0; j < to.length; j++) {
+                if (from[i] == to[j]) {
+                    exitCount = i;
+                    entryCount = j;
+                    break search;
+                }
+            }
+        }
+
+        final ArrayList<Invoker> exits = new ArrayList<>(exitCount);
+        for (int i = 0; i < exitCount; i++) {
+            final Invoker invoker = getInvoker(from[i], OnExit.class);
+            if (invoker != null) {
+                exits.add(invoker);
+            }
+        }
+        final ArrayList<Invoker> entries = new ArrayList<>(entryCount);
+        for (int i = entryCount - 1; i >= 0; i--) {
+            final Invoker invoker = getInvoker(to[i], OnEntry.class);
+            if (invoker != null) {
+                entries.add(invoker);
+            }
+        }
+        return new TransitionPath(exits.toArray(new Invoker[exits.size()]),
+                entries.toArray(new Invoker[entries.size()]));
+    }
+
+    private static HashMap<Class<?>, EventInvokers> createEventInvokers(
+            IntMap<HashMap<Class<?>, Invoker>> invokers, boolean dense,
+            int minState, int maxState) {
+        final HashMap<Class<?>, IntMap<Invoker>> byEventType = new HashMap<>();
+        for (int i = 0, size = invokers.size(); i < size; i++) {
+            for (Map.Entry<Class<?>, Invoker> entry : invokers.valueAt(i).entrySet()) {
+                IntMap<Invoker> byState = byEventType.get(entry.getKey());
+                if (byState == null) {
+                    byState = new IntMap<>();
+                    byEventType.put(entry.getKey(), byState);
+                }
+                byState.put(invokers.keyAt(i), entry.getValue());
+            }
+        }
+        final HashMap<Class<?>, EventInvokers> eventInvokers = new HashMap<>();
+        for (Map.Entry<Class<?>, IntMap<Invoker>> entry : byEventType.entrySet()) {
+            eventInvokers.put(entry.getKey(), dense
+                    ? EventInvokers.dense(entry.getValue(), minState, maxState)
+                    : EventInvokers.sparse(entry.getValue()));
+        }
+        return eventInvokers;
+    }
+
+    private void addCodeInvoker(int state, int code, Invoker invoker, String name) {
+        IntMap<Invoker> callbacks = mCodeInvokers.get(state);
+        if (callbacks == null) {
+            callbacks = new IntMap<>();
+            mCodeInvokers.put(state, callbacks);
+        }
+        if (callbacks.get(code) != null) {
+            throw new IllegalArgumentException("Duplicate handler methods not allowed" +
+                    ", method: " + name);
+        }
+        callbacks.put(code, invoker);
+    }
+
+    private void addInvoker(int state, Class<?> eventType, Invoker invoker, String name) {
+        HashMap<Class<?>, Invoker> callbacks = mInvokers.get(state);
+        if (callbacks == null) {
+            callbacks = new HashMap<>();
+            mInvokers.put(state, callbacks);
+        }
+        if (callbacks.put(eventType, invoker) != null) {
+            throw new IllegalArgumentException("Duplicate handler methods not allowed" +
+                    ", method: " + name);
+        }
+    }
+
+    //region Inner classes
+
+    static class OnEntry {}
+    static class OnExit {}
+
+    /** <code>OnExit</code> and <code>OnEntry</code> handlers of a transition, in call order. */
+    static final class TransitionPath {
+
+        public final Invoker[] exits;
+        public final Invoker[] entries;
+
+        TransitionPath(Invoker[] exits, Invoker[] entries) {
+            this.exits = exits;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Invokers of handler methods for one event type. In dense layout invokers of states
+     * are stored in an array at <code>(state - minState)</code>, otherwise in a sparse map.
+     */
+    static final class EventInvokers {
+
+        public final Invoker anyInvoker;
+        private final Invoker[] mDense;
+        private final IntMap<Invoker> mSparse;
+        private final int mMinState;
+        private final int mMaxState;
+
+        private EventInvokers(Invoker anyInvoker, Invoker[] dense, IntMap<Invoker> sparse,
+                              int minState, int maxState) {
+            this.anyInvoker = anyInvoker;
+            mDense = dense;
+            mSparse = sparse;
+            mMinState = minState;
+            mMaxState = maxState;
+        }
+
+        /** Returns invoker for given state or <code>null</code>. */
+        public Invoker get(int state) {
+            if (state == StateHandler.STATE_ANY) {
+                return anyInvoker;
+            }
+            if (mDense == null) {
+                return mSparse.get(state);
+            }
+            if (state < mMinState || state > mMaxState) {
+                return null; // no handlers in this state
+            }
+            return mDense[state - mMinState];
+        }
+
+        static EventInvokers dense(IntMap<Invoker> byState, int minState, int maxState) {
+            final Invoker[] dense = minState > maxState
+                    ? new Invoker[0] : new Invoker[maxState - minState + 1];
+            for (int i = 0, size = byState.size(); i < size; i++) {
+                final int state = byState.keyAt(i);
+                if (state != StateHandler.STATE_ANY) {
+                    dense[state - minState] = byState.valueAt(i);
+                }
+            }
+            return new EventInvokers(byState.get(StateHandler.STATE_ANY), dense, null,
+                    minState, maxState);
+        }
+
+        static EventInvokers sparse(IntMap<Invoker> byState) {
+            return new EventInvokers(byState.get(StateHandler.STATE_ANY), null, byState, 0, 0);
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket histogram of durations in nanoseconds. Bucket <code>i</code> counts
+ * durations below <code>2^i</code> nanoseconds, which are not counted by the
+ * previous bucket. The last bucket also counts all longer durations. Recording is
+ * allocation-free and striped like {@link StripedCounter}.
+ *
+ * @author Sergej Shafarenka
+ */
+public final class Histogram {
+
+    /** Number of buckets. The last bucket starts at about 20 hours. */
+    public static final int BUCKETS_COUNT = 48;
+
+    private static final int ROW_STRIDE = 56; // buckets, sum and padding
+
+    private final AtomicLongArray mCells;
+
+    Histogram() {
+        mCells = new AtomicLongArray(StripedCounter.STRIPES * ROW_STRIDE);
+    }
+
+    /** Returns exclusive upper bound of given bucket in nanoseconds. */
+    public static long getUpperBoundNanos(int bucket) {
+        return bucket == BUCKETS_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /** Returns counts of all buckets. */
+    public long[] getCounts() {
+        final long[] counts = new long[BUCKETS_COUNT];
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+            final int row = stripe * ROW_STRIDE;
+            for (int i = 0; i < BUCKETS_COUNT; i++) {
+                counts[i] += mCells.get(row + i);
+            }
+        }
+        return counts;
+    }
+
+    /** Returns number of recorded durations. */
+    public long getCount() {
+        long count = 0;
+        for (long bucketCount : getCounts()) {
+            count += bucketCount;
+        }
+        return count;
+    }
+
+    /** Returns sum of recorded durations in nanoseconds. */
+    public long getTotalNanos() {
+        long total = 0;
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+            total += mCells.get(stripe * ROW_STRIDE + BUCKETS_COUNT);
+        }
+        return total;
+    }
+
+    //-- implementation
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        final int bucket = Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKETS_COUNT - 1);
+        final int row = StripedCounter.stripe() * ROW_STRIDE;
+        mCells.getAndIncrement(row + bucket);
+        mCells.getAndAdd(row + BUCKETS_COUNT, nanos);
+    }
+
+}
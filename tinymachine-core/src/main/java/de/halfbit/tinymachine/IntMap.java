@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.util.Arrays;
+
+/**
+ * Map of int keys to values, kept in sorted parallel arrays. Lookups use binary search
+ * and don't box keys. This is <code>android.util.SparseArray</code> for the plain JVM,
+ * where the core has to run.
+ *
+ * @author Sergej Shafarenka
+ */
+final class IntMap<V> {
+
+    private int[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+
+    IntMap() {
+        mKeys = new int[4];
+        mValues = new Object[4];
+    }
+
+    /** Creates a copy of given map. */
+    IntMap(IntMap<V> map) {
+        mKeys = Arrays.copyOf(map.mKeys, Math.max(map.mKeys.length, 4));
+        mValues = Arrays.copyOf(map.mValues, Math.max(map.mValues.length, 4));
+        mSize = map.mSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        final int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+        return index < 0 ? null : (V) mValues[index];
+    }
+
+    public void put(int key, V value) {
+        int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if (index >= 0) {
+            mValues[index] = value;
+            return;
+        }
+        index = ~index;
+        if (mSize == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mSize << 1);
+            mValues = Arrays.copyOf(mValues, mSize << 1);
+        }
+        System.arraycopy(mKeys, index, mKeys, index + 1, mSize - index);
+        System.arraycopy(mValues, index, mValues, index + 1, mSize - index);
+        mKeys[index] = key;
+        mValues[index] = value;
+        mSize++;
+    }
+
+    /** Returns index of given key or a negative number, if there is no such key. */
+    public int indexOfKey(int key) {
+        return Arrays.binarySearch(mKeys, 0, mSize, key);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /** Returns key at given index. Keys are sorted in ascending order. */
+    public int keyAt(int index) {
+        return mKeys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        return (V) mValues[index];
+    }
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Pre-bound invoker of a single handler method. Invokers are created once per
+ * handler method when handler table is built, which means that number of
+ * method parameters is already resolved when an event gets delivered.
+ *
+ * <p>
+ *     Exceptions thrown by handler methods are propagated as they are, without
+ *     being wrapped into reflection exceptions.
+ *
+ * @author Sergej Shafarenka
+ */
+abstract class Invoker {
+
+    /** Invoker of events deferred with {@link Defer}, recognized by the machine. */
+    static final Invoker DEFER = new DeferInvoker();
+
+    public abstract void invoke(Object handler, Object event, TinyMachine tm) throws Exception;
+
+    /**
+     * Calls handler method receiving event codes. Dispatcher invokers box nothing,
+     * reflective invokers box the payload.
+     */
+    public void invokeCode(Object handler, long payload, TinyMachine tm) throws Exception {
+        throw new IllegalStateException("Handler method does not receive event codes");
+    }
+
+    /** Creates invoker calling handler method with given index of given dispatcher. */
+    public static Invoker forDispatcher(Dispatcher dispatcher, int index) {
+        return new DispatcherInvoker(dispatcher, index);
+    }
+
+    /**
+     * Creates invoker calling handler method receiving event codes with given index
+     * of given dispatcher.
+     */
+    public static Invoker forDispatcherCode(Dispatcher dispatcher, int index) {
+        return new DispatcherCodeInvoker(dispatcher, index);
+    }
+
+    /** Creates invoker calling given handler method receiving event codes using reflection. */
+    public static Invoker forCodeMethod(Method method) {
+        try {
+            method.setAccessible(true); // skip access checks on every call
+        } catch (SecurityException e) {
+            // access checks will be done
+        }
+
+        final Class<?>[] params = method.getParameterTypes();
+        if (params.length > 0 && params[0] != long.class) {
+            throw new IllegalArgumentException(
+                    "Payload parameter of @StateHandler method must be long: "
+                            + method.getName());
+        }
+        if (params.length > 2) {
+            throw new IllegalArgumentException(
+                    "@StateHandler method must have 0, 1 or 2 parameters: "
+                            + method.getName());
+        }
+        return new CodeInvoker(method, params.length);
+    }
+
+    /**
+     * Creates invoker moving the machine into given state without calling any method.
+     *
+     * @param state     the state to put the machine into
+     * @param queued    <code>true</code> if transition must always be queued,
+     *                  <code>false</code> if it can be executed right away
+     */
+    public static Invoker forTransition(int state, boolean queued) {
+        return new TransitionInvoker(state, queued);
+    }
+
+    /**
+     * Creates invoker calling given handler method using reflection.
+     *
+     * @param method    the handler method
+     * @param hasEvent  <code>true</code> if method receives an event,
+     *                  <code>false</code> for <code>OnEntry</code> and <code>OnExit</code>
+     *                  handler methods
+     */
+    public static Invoker forMethod(Method method, boolean hasEvent) {
+        try {
+            method.setAccessible(true); // skip access checks on every call
+        } catch (SecurityException e) {
+            // access checks will be done
+        }
+
+        final int paramsCount = method.getParameterTypes().length;
+        if (hasEvent) {
+            switch (paramsCount) {
+                case 1: return new EventInvoker(method);
+                case 2: return new EventMachineInvoker(method);
+                default:
+                    throw new IllegalArgumentException(
+                            "@StateEventHandler method must have 1 or 2 parameters: "
+                                    + method.getName());
+            }
+        } else {
+            switch (paramsCount) {
+                case 0: return new NoArgsInvoker(method);
+                case 1: return new MachineInvoker(method);
+                default:
+                    throw new IllegalArgumentException(
+                            "@StateEventHandler method must have 0 or 1 parameters: "
+                                    + method.getName());
+            }
+        }
+    }
+
+    static Exception unwrap(InvocationTargetException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return cause instanceof Exception ? (Exception) cause : e;
+    }
+
+    //region Inner classes
+
+    private static final class DispatcherInvoker extends Invoker {
+
+        private final Dispatcher mDispatcher;
+        private final int mIndex;
+
+        DispatcherInvoker(Dispatcher dispatcher, int index) {
+            mDispatcher = dispatcher;
+            mIndex = index;
+        }
+
+        @Override
+        public void invoke(Object handler, Object event, TinyMachine tm) throws Exception {
+            mDispatcher.dispatch(mIndex, handler, event, tm);
+        }
+    }
+
+    private static final class DispatcherCodeInvoker extends Invoker {
+
+        private final Dispatcher mDispatcher;
+        private final int mIndex;
+
+        DispatcherCodeInvoker(Dispatcher dispatcher, int index) {
+            mDispatcher = dispatcher;
+            mIndex = index;
+        }
+
+        @Override
+        public void invoke(Object handler, Object event, TinyMachine tm) {
+            throw new IllegalStateException("Handler method receives event codes only");
+        }
+
+        @Override
+        public void invokeCode(Object handler, long payload, TinyMachine tm) throws Exception {
+            mDispatcher.dispatchCode(mIndex, handler, payload, tm);
+        }
+    }
+
+    private static final class CodeInvoker extends Invoker {
+
+        private final Method mMethod;
+        private final int mParamsCount;
+
+        CodeInvoker(Method method, int paramsCount) {
+            mMethod = method;
+            mParamsCount = paramsCount;
+        }
+
+        @Override
+        public void invoke(Object handler, Object event, TinyMachine tm) {
+            throw new IllegalStateException("Handler method receives event codes only");
+        }
+
+        @Override
+        public void invokeCode(Object handler, long payload, TinyMachine tm) throws Exception {
+            try {
+                // reflection boxes the payload, generated dispatchers do not
+                switch (mParamsCount) {
+                    case 0: mMethod.invoke(handler); break;
+                    case 1: mMethod.invoke(handler, payload); break;
+                    default: mMethod.invoke(handler, payload, tm); break;
+                }
+            } catch (InvocationTargetException e) {
+                throw unwrap(e);
+            }
+        }
+    }
+
+    private static final class TransitionInvoker extends Invoker {
+
+        private final int mState;
+        private final boolean mQueued;
+
+        TransitionInvoker(int state, boolean queued) {
+            mState = state;
+            mQueued = queued;
+        }
+
+        @Override
+        public void invoke(Object handler, Object event, TinyMachine tm) {
+            if (mQueued) {
+                tm.transitionTo(mState);
+            } else {
+                tm.applyTransition(mState);
+            }
+        }
+    }
+
+    private static final class DeferInvoker extends Invoker {
+
+        @Override
+        public void invoke(Object handler, Object event, TinyMachine tm) {
+            tm.defer(event);
+        }
+    }
+
+    private static final class NoArgsInvoker extends Invoker {
+
+        private final Method mMethod;
+
+        NoArgsInvoker(Method method) {
+            mMethod = method;
+        }
+
+        @Override
+        public void invoke(Object handler, Object event, TinyMachine tm) throws Exception {
+            try {
+                mMethod.invoke(handler);
+            } catch (InvocationTargetException e) {
+                throw unwrap(e);
+            }
+        }
+    }
+
+    private static final class MachineInvoker extends Invoker {
+
+        private final Method mMethod;
+
+        MachineInvoker(Method method) {
+            mMethod = method;
+        }
+
+        @Override
+        public void invoke(Object handler, Object event, TinyMachine tm) throws Exception {
+            try {
+                mMethod.invoke(handler, tm);
+            } catch (InvocationTargetException e) {
+                throw unwrap(e);
+            }
+        }
+    }
+
+    private static final class EventInvoker extends Invoker {
+
+        private final Method mMethod;
+
+        EventInvoker(Method method) {
+            mMethod = method;
+        }
+
+        @Override
+        public void invoke(Object handler, Object event, TinyMachine tm) throws Exception {
+            try {
+                mMethod.invoke(handler, event);
+            } catch (InvocationTargetException e) {
+                throw unwrap(e);
+            }
+        }
+    }
+
+    private static final class EventMachineInvoker extends Invoker {
+
+        private final Method mMethod;
+
+        EventMachineInvoker(Method method) {
+            mMethod = method;
+        }
+
+        @Override
+        public void invoke(Object handler, Object event, TinyMachine tm) throws Exception {
+            try {
+                mMethod.invoke(handler, event, tm);
+            } catch (InvocationTargetException e) {
+                throw unwrap(e);
+            }
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+/**
+ * Receives traces of machines having a trace tag.
+ *
+ * <p>
+ *     The logger is resolved once, when the first trace gets written. Logger set by
+ *     {@link TinyMachine#setLogger(Logger)} wins. Otherwise the first implementation
+ *     registered in <code>META-INF/services/de.halfbit.tinymachine.Logger</code> is
+ *     used. Android library registers a logger writing to LogCat this way. If there is
+ *     no registered logger or it cannot be instantiated, traces are discarded.
+ *
+ * @see TinyMachine#setTraceTag(String)
+ * @author Sergej Shafarenka
+ */
+public interface Logger {
+
+    void log(String tag, String message);
+
+}
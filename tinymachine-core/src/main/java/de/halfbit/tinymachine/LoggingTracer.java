@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+/**
+ * Tracer formatting traces into text lines for {@link Logger}.
+ *
+ * @see TinyMachine#setTraceTag(String)
+ * @author Sergej Shafarenka
+ */
+final class LoggingTracer implements MachineTracer {
+
+    private final String mTag;
+
+    LoggingTracer(String tag) {
+        mTag = tag;
+    }
+
+    @Override
+    public void onEvent(TinyMachine tm, int state, Object event) {
+        log(state, "OnEvent, event=" + event);
+    }
+
+    @Override
+    public void onUnhandled(TinyMachine tm, int state, Object event) {
+        log(state, "OnEvent, no handler method, event=" + event);
+    }
+
+    @Override
+    public void onEventCode(TinyMachine tm, int state, int code, long payload,
+                            boolean handled) {
+        log(state, (handled ? "OnEvent, code=" : "OnEvent, no handler method, code=")
+                + code + ", payload=" + payload);
+    }
+
+    @Override
+    public void onTransition(TinyMachine tm, int fromState, int toState) {
+        log(toState, "new state, old state=" + fromState);
+    }
+
+    void log(int state, String message) {
+        TinyMachine.getLogger().log(mTag, "  [" + state + "] " + message);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+/**
+ * Immutable definition of a machine, shared by any number of machine instances.
+ *
+ * <p>
+ *     Definition holds a handler instance and resolved handler methods of its class.
+ *     Machines created with a definition keep nothing but their state, a context and
+ *     a task queue, which is allocated when the first task has to wait for processing.
+ *     Handler must be stateless then. Per-instance data is given to machines as context
+ *     and handler methods get it with {@link TinyMachine#getContext()}.
+ *
+ * <pre>
+ * static final MachineDefinition DEFINITION = new MachineDefinition(new SessionHandler());
+ *
+ * TinyMachine tm = new TinyMachine(DEFINITION, STATE_IDLE, new Session(id));
+ *
+ * public class SessionHandler {
+ *     &#64;StateHandler(state = STATE_IDLE)
+ *     public void onEvent(Connect event, TinyMachine tm) {
+ *         Session session = (Session) tm.getContext();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Sergej Shafarenka
+ */
+public final class MachineDefinition {
+
+    final Object handler;
+    final HandlerTable handlerTable;
+    final int queueCapacity;
+
+    /**
+     * Creates new definition for given handler.
+     *
+     * @param handler   instance with handler methods, shared by all machines
+     */
+    public MachineDefinition(Object handler) {
+        this(handler, TaskQueue.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates new definition for given handler and initial capacity of task queues.
+     *
+     * @param handler       instance with handler methods, shared by all machines
+     * @param queueCapacity initial capacity of task queues
+     */
+    public MachineDefinition(Object handler, int queueCapacity) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler must not be null.");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + queueCapacity);
+        }
+        this.handler = handler;
+        this.handlerTable = HandlerTable.forClass(handler.getClass());
+        this.queueCapacity = queueCapacity;
+    }
+
+    //-- public api
+
+    /**
+     * Returns handler instance shared by machines of this definition.
+     */
+    public Object getHandler() {
+        return handler;
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opt-in metrics of one or more machines. Metrics record state entries and dwell
+ * times, latencies of event handler methods, queue depth and unhandled events.
+ * Recording is allocation-free once all states and event types have been seen and
+ * uses striped counters, so that one instance can be shared by machines processed on
+ * different threads. Queue depth gauges are only meaningful for a single machine.
+ *
+ * <p>
+ *     Use {@link #export(Exporter)} to scrape recorded values.
+ *
+ * @see TinyMachine#setMetrics(MachineMetrics)
+ * @author Sergej Shafarenka
+ */
+public final class MachineMetrics {
+
+    /** Receives recorded values on {@link #export(Exporter)}. */
+    public static interface Exporter {
+
+        /**
+         * Called for every seen state.
+         *
+         * @param state         the state
+         * @param entriesCount  number of transitions into this state
+         * @param unhandledCount number of events without handler methods in this state
+         * @param dwellTime     time spent in this state before leaving it
+         */
+        void onState(int state, long entriesCount, long unhandledCount, Histogram dwellTime);
+
+        /**
+         * Called for every event type handled in a state, including
+         * <code>STATE_ANY</code>.
+         *
+         * @param state         the state
+         * @param eventType     type of handled events
+         * @param latency       execution time of the handler method
+         */
+        void onHandler(int state, Class<?> eventType, Histogram latency);
+    }
+
+    private final AtomicInteger mQueueDepth;
+    private final AtomicInteger mMaxQueueDepth;
+    private final StripedCounter mUnhandledCount;
+    private volatile IntMap<StateMetrics> mStates; // copied on write
+
+    public MachineMetrics() {
+        mQueueDepth = new AtomicInteger();
+        mMaxQueueDepth = new AtomicInteger();
+        mUnhandledCount = new StripedCounter();
+        mStates = new IntMap<>();
+    }
+
+    //-- public api
+
+    /**
+     * Returns last observed number of pending tasks. For concurrent machines it is
+     * the upper bound of pending tasks.
+     */
+    public int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    /** Returns maximum observed number of pending tasks. */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /** Returns number of events without handler methods in all states. */
+    public long getUnhandledCount() {
+        return mUnhandledCount.sum();
+    }
+
+    /** Gives current values of per-state metrics to given exporter. */
+    public void export(Exporter exporter) {
+        final IntMap<StateMetrics> states = mStates;
+        for (int i = 0, size = states.size(); i < size; i++) {
+            final int state = states.keyAt(i);
+            final StateMetrics metrics = states.valueAt(i);
+            exporter.onState(state, metrics.entriesCount.sum(),
+                    metrics.unhandledCount.sum(), metrics.dwellTime);
+            for (Map.Entry<Class<?>, Histogram> entry : metrics.latencies.entrySet()) {
+                exporter.onHandler(state, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    //-- implementation
+
+    void onQueueDepth(int depth) {
+        mQueueDepth.lazySet(depth);
+        int max;
+        while (depth > (max = mMaxQueueDepth.get())) {
+            if (mMaxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    void onUnhandled(int state) {
+        mUnhandledCount.increment();
+        getStateMetrics(state).unhandledCount.increment();
+    }
+
+    void onHandled(int state, Class<?> eventType, long nanos) {
+        final ConcurrentHashMap<Class<?>, Histogram> latencies = getStateMetrics(state).latencies;
+        Histogram latency = latencies.get(eventType);
+        if (latency == null) {
+            latency = new Histogram();
+            final Histogram existing = latencies.putIfAbsent(eventType, latency);
+            if (existing != null) {
+                latency = existing;
+            }
+        }
+        latency.record(nanos);
+    }
+
+    void onTransition(int fromState, int toState, long dwellNanos) {
+        getStateMetrics(fromState).dwellTime.record(dwellNanos);
+        getStateMetrics(toState).entriesCount.increment();
+    }
+
+    private StateMetrics getStateMetrics(int state) {
+        StateMetrics metrics = mStates.get(state);
+        if (metrics == null) {
+            synchronized (this) {
+                metrics = mStates.get(state);
+                if (metrics == null) {
+                    metrics = new StateMetrics();
+                    final IntMap<StateMetrics> states = new IntMap<>(mStates);
+                    states.put(state, metrics);
+                    mStates = states;
+                }
+            }
+        }
+        return metrics;
+    }
+
+    //region Inner classes
+
+    private static final class StateMetrics {
+        public final StripedCounter entriesCount = new StripedCounter();
+        public final StripedCounter unhandledCount = new StripedCounter();
+        public final Histogram dwellTime = new Histogram();
+        public final ConcurrentHashMap<Class<?>, Histogram> latencies
+                = new ConcurrentHashMap<>();
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+/**
+ * Observes processing of a machine. Observers are called on the thread processing
+ * the machine, never concurrently, and must not block it. Used by state listeners
+ * and by adapters built on top of machines, like the ones in
+ * <code>tinymachine-flow</code> module.
+ *
+ * @see TinyMachine#addObserver(MachineObserver)
+ * @author Sergej Shafarenka
+ */
+public interface MachineObserver {
+
+    /** Called after machine has transitioned and before <code>OnEntry</code> handlers. */
+    void onTransition(TinyMachine tm, int fromState, int toState);
+
+    /** Called after all pending tasks have been processed. */
+    void onDrained(TinyMachine tm);
+
+}
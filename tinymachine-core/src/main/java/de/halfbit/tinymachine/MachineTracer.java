@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+/**
+ * Receives structured traces of a machine. Callbacks get raw states and events and
+ * are called on the thread processing the machine, right before handler methods.
+ * Implementations must be fast and must not call back into the machine. If no tracer
+ * is set, tracing costs a single null check per task.
+ *
+ * @see TinyMachine#setTracer(MachineTracer)
+ * @author Sergej Shafarenka
+ */
+public interface MachineTracer {
+
+    /**
+     * Called when an event is about to be delivered to its handler methods.
+     *
+     * @param tm        machine processing the event
+     * @param state     current state
+     * @param event     the event
+     */
+    void onEvent(TinyMachine tm, int state, Object event);
+
+    /**
+     * Called when an event gets ignored, because there is no handler method for it,
+     * neither in current state nor in <code>STATE_ANY</code>.
+     *
+     * @param tm        machine processing the event
+     * @param state     current state
+     * @param event     the event
+     */
+    void onUnhandled(TinyMachine tm, int state, Object event);
+
+    /**
+     * Called when an event code is about to be delivered to its handler methods or gets
+     * ignored, because there is no handler method for it.
+     *
+     * @param tm        machine processing the event code
+     * @param state     current state
+     * @param code      the event code
+     * @param payload   the payload of event code
+     * @param handled   <code>true</code> if there is a handler method for the code
+     */
+    void onEventCode(TinyMachine tm, int state, int code, long payload, boolean handled);
+
+    /**
+     * Called when the machine has changed its state, after <code>OnExit</code> handlers
+     * of the old state and before <code>OnEntry</code> handlers of the new state.
+     *
+     * @param tm        machine changing the state
+     * @param fromState old state
+     * @param toState   new state
+     */
+    void onTransition(TinyMachine tm, int fromState, int toState);
+
+}
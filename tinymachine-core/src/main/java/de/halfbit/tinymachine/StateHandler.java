@@ -29,12 +29,18 @@ import java.lang.annotation.Target;
  *     <li><code>OnExit</code> gets called when machine leaves given state</li>
  *     <li><code>OnEvent (default)</code> gets called when machine receives
  *          given event in given state</li>
+ * <p>
+ *     <code>OnEvent</code> handlers with a <code>code</code> receive events fired by
+ *     {@link TinyMachine#fireEventCode(int, long)} instead of event objects. Such
+ *     handler methods take no parameters, a <code>long</code> payload, or a payload
+ *     and the machine.
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface StateHandler {
 
     public static final int STATE_ANY = Integer.MIN_VALUE;
+    public static final int NO_CODE = Integer.MIN_VALUE;
 
     public static class Type {
         public static final int OnEntry = 0;
@@ -54,4 +60,10 @@ public @interface StateHandler {
      */
     int type() default Type.OnEvent;
 
+    /**
+     * Defines code of events this handler processes, if they are fired as int codes
+     * @return  event code or <code>NO_CODE</code> for handlers of event objects
+     */
+    int code() default NO_CODE;
+
 }
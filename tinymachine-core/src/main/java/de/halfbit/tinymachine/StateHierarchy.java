@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Apply this annotation to handler classes to nest states into each other.
+ * <p>
+ *     An event not handled in current state is handled by the nearest parent state
+ *     declaring a handler for it. A transition calls <code>OnExit</code> handlers of
+ *     the states being left from the innermost one up to, but excluding, the nearest
+ *     common parent of both states. Then it calls <code>OnEntry</code> handlers of the
+ *     states being entered from the outermost one down to the target state. If one
+ *     of both states contains the other one, the containing state is neither left
+ *     nor entered.
+ *
+ * <pre>
+ * &#64;StateHierarchy({
+ *     &#64;Parent(state = STATE_PLAYING, parent = STATE_ON),
+ *     &#64;Parent(state = STATE_PAUSED, parent = STATE_ON)
+ * })
+ * public class PlayerHandler { ... }
+ * </pre>
+ *
+ * Handlers are resolved and transition paths are computed once per handler class,
+ * so dispatching events in deep hierarchies costs the same as in flat ones.
+ *
+ * @author Sergej Shafarenka
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface StateHierarchy {
+
+    /**
+     * Declares parent of a state.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({})
+    public static @interface Parent {
+
+        /**
+         * Defines the nested state
+         * @return  a state constant
+         */
+        int state();
+
+        /**
+         * Defines the state containing the nested state
+         * @return  a state constant
+         */
+        int parent();
+    }
+
+    /**
+     * Defines parents of nested states
+     * @return  parent declarations
+     */
+    Parent[] value();
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spreading updates over several cells, so that threads updating it at the
+ * same time rarely hit the same cache line. Reading sums up all cells.
+ *
+ * @author Sergej Shafarenka
+ */
+final class StripedCounter {
+
+    static final int STRIPES;
+    private static final int STRIPE_MASK;
+    private static final int CELL_STRIDE = 8; // 64 bytes between cells
+
+    static {
+        int stripes = 1;
+        final int cpus = Runtime.getRuntime().availableProcessors();
+        while (stripes < cpus && stripes < 8) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+        STRIPE_MASK = stripes - 1;
+    }
+
+    private final AtomicLongArray mCells;
+
+    StripedCounter() {
+        mCells = new AtomicLongArray(STRIPES * CELL_STRIDE);
+    }
+
+    public void increment() {
+        mCells.getAndIncrement(stripe() * CELL_STRIDE);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += mCells.get(i * CELL_STRIDE);
+        }
+        return sum;
+    }
+
+    /** Returns stripe of the calling thread. */
+    static int stripe() {
+        return (int) Thread.currentThread().getId() & STRIPE_MASK;
+    }
+
+}
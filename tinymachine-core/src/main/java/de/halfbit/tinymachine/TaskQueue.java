@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+/**
+ * Single-threaded queue of machine tasks. Tasks are stored in a growable ring buffer
+ * of parallel arrays, one slot per task. Arrays are allocated when the first task is
+ * offered and grow when the queue is full, so that steady-state offering and polling
+ * allocates nothing. Payloads of event codes are kept in another array, which is
+ * allocated when the first payload is offered.
+ *
+ * @author Sergej Shafarenka
+ */
+final class TaskQueue {
+
+    static final int DEFAULT_CAPACITY = 8;
+
+    private final int mInitialCapacity;
+
+    private int[] mCodes;
+    private int[] mStates;
+    private Object[] mEvents;
+    private long[] mPayloads;
+    private int mHead;
+    private int mSize;
+
+    /**
+     * Creates new queue.
+     *
+     * @param initialCapacity   initial number of slots, rounded up to a power of two
+     */
+    TaskQueue(int initialCapacity) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + initialCapacity);
+        }
+        int capacity = 1;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        mInitialCapacity = capacity;
+    }
+
+    public void offer(int code, Object event, int state) {
+        offer(code, event, state, 0);
+    }
+
+    public void offer(int code, Object event, int state, long payload) {
+        ensureCapacity(mSize + 1);
+        put((mHead + mSize) & (mCodes.length - 1), code, event, state, payload);
+        mSize++;
+    }
+
+    /**
+     * Moves all tasks of given queue in front of the tasks of this queue, keeping
+     * their order. Given queue is empty afterwards.
+     */
+    public void prependAll(TaskQueue source) {
+        final int count = source.mSize;
+        if (count == 0) {
+            return;
+        }
+        ensureCapacity(mSize + count);
+        for (int i = count - 1; i >= 0; i--) {
+            mHead = (mHead - 1) & (mCodes.length - 1);
+            put(mHead, source.codeAt(i), source.eventAt(i), source.stateAt(i),
+                    source.payloadAt(i));
+        }
+        mSize += count;
+        source.clear();
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /** Returns code of the head task. Queue must not be empty. */
+    public int headCode() {
+        return mCodes[mHead];
+    }
+
+    /** Returns event of the head task. Queue must not be empty. */
+    public Object headEvent() {
+        return mEvents[mHead];
+    }
+
+    /** Returns state of the head task. Queue must not be empty. */
+    public int headState() {
+        return mStates[mHead];
+    }
+
+    /** Returns payload of the head task. Queue must not be empty. */
+    public long headPayload() {
+        return mPayloads == null ? 0 : mPayloads[mHead];
+    }
+
+    /** Returns code of the task at given position, counting from the head. */
+    public int codeAt(int position) {
+        return mCodes[(mHead + position) & (mCodes.length - 1)];
+    }
+
+    /** Returns event of the task at given position, counting from the head. */
+    public Object eventAt(int position) {
+        return mEvents[(mHead + position) & (mCodes.length - 1)];
+    }
+
+    /** Returns state of the task at given position, counting from the head. */
+    public int stateAt(int position) {
+        return mStates[(mHead + position) & (mCodes.length - 1)];
+    }
+
+    /** Returns payload of the task at given position, counting from the head. */
+    public long payloadAt(int position) {
+        return mPayloads == null ? 0 : mPayloads[(mHead + position) & (mCodes.length - 1)];
+    }
+
+    /** Removes all tasks. */
+    public void clear() {
+        while (mSize > 0) {
+            removeHead();
+        }
+        mHead = 0;
+    }
+
+    /** Removes the head task. Queue must not be empty. */
+    public void removeHead() {
+        mEvents[mHead] = null;
+        mHead = (mHead + 1) & (mCodes.length - 1);
+        mSize--;
+    }
+
+    /**
+     * Removes the oldest task with one of given codes.
+     *
+     * @return <code>true</code> if a task was removed, <code>false</code> otherwise
+     */
+    public boolean removeFirst(int code, int otherCode) {
+        final int mask = mCodes == null ? 0 : mCodes.length - 1;
+        for (int i = 0; i < mSize; i++) {
+            final int taskCode = mCodes[(mHead + i) & mask];
+            if (taskCode == code || taskCode == otherCode) {
+                // shift preceding tasks by one slot towards the tail
+                for (int j = i; j > 0; j--) {
+                    final int to = (mHead + j) & mask;
+                    final int from = (mHead + j - 1) & mask;
+                    mCodes[to] = mCodes[from];
+                    mStates[to] = mStates[from];
+                    mEvents[to] = mEvents[from];
+                    if (mPayloads != null) {
+                        mPayloads[to] = mPayloads[from];
+                    }
+                }
+                removeHead();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the event of the youngest pending task with given code having an event
+     * of the same class. Search stops at the first task with given barrier code.
+     *
+     * @return <code>true</code> if an event was replaced, <code>false</code> otherwise
+     */
+    public boolean replaceLastEvent(int code, Object event, int barrierCode) {
+        final Class<?> eventType = event.getClass();
+        final int mask = mCodes == null ? 0 : mCodes.length - 1;
+        for (int i = mSize - 1; i >= 0; i--) {
+            final int index = (mHead + i) & mask;
+            if (mCodes[index] == barrierCode) {
+                return false;
+            }
+            final Object pending = mEvents[index];
+            if (mCodes[index] == code && pending.getClass() == eventType) {
+                mEvents[index] = event;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //-- implementation
+
+    private void ensureCapacity(int size) {
+        if (mCodes == null) {
+            int capacity = mInitialCapacity;
+            while (capacity < size) {
+                capacity <<= 1;
+            }
+            mCodes = new int[capacity];
+            mStates = new int[capacity];
+            mEvents = new Object[capacity];
+        } else {
+            while (mCodes.length < size) {
+                grow();
+            }
+        }
+    }
+
+    private void put(int index, int code, Object event, int state, long payload) {
+        mCodes[index] = code;
+        mStates[index] = state;
+        mEvents[index] = event;
+        if (mPayloads != null) {
+            mPayloads[index] = payload;
+        } else if (payload != 0) {
+            mPayloads = new long[mCodes.length];
+            mPayloads[index] = payload;
+        }
+    }
+
+    private void grow() {
+        final int capacity = mCodes.length;
+        final int[] codes = new int[capacity << 1];
+        final int[] states = new int[capacity << 1];
+        final Object[] events = new Object[capacity << 1];
+
+        // unwrap tasks to the beginning of new arrays
+        final int headPart = capacity - mHead;
+        System.arraycopy(mCodes, mHead, codes, 0, headPart);
+        System.arraycopy(mCodes, 0, codes, headPart, mHead);
+        System.arraycopy(mStates, mHead, states, 0, headPart);
+        System.arraycopy(mStates, 0, states, headPart, mHead);
+        System.arraycopy(mEvents, mHead, events, 0, headPart);
+        System.arraycopy(mEvents, 0, events, headPart, mHead);
+
+        if (mPayloads != null) {
+            final long[] payloads = new long[capacity << 1];
+            System.arraycopy(mPayloads, mHead, payloads, 0, headPart);
+            System.arraycopy(mPayloads, 0, payloads, headPart, mHead);
+            mPayloads = payloads;
+        }
+
+        mCodes = codes;
+        mStates = states;
+        mEvents = events;
+        mHead = 0;
+    }
+
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel delivering delayed events and state timeouts into machines.
+ * One wheel is meant to be shared by many machines. Scheduling and cancelling a
+ * timeout is <code>O(1)</code> and allocates nothing but the timeout itself.
+ *
+ * <p>
+ *     The wheel is a ring of buckets, each covering one tick. A timeout is put into
+ *     the bucket of its deadline and is expired when the wheel passes this bucket in
+ *     the round of the deadline. Timeouts are expired with the precision of one tick.
+ *     Cancelled timeouts are removed when the wheel passes their bucket.
+ *
+ * <p>
+ *     The wheel is driven by the thread calling {@link #advance()}. Expired events are
+ *     fired into their machines on this thread. Call {@link #start()} to drive the wheel
+ *     by its own thread, which is only allowed, if all machines using the wheel are
+ *     thread-safe. Otherwise call {@link #advance()} regularly on the thread of the
+ *     machines.
+ *
+ * @see TinyMachine#setTimingWheel(TimingWheel)
+ * @author Sergej Shafarenka
+ */
+public final class TimingWheel {
+
+    private final long mTickNanos;
+    private final Bucket[] mBuckets;
+    private final int mMask;
+    private final long mStartNanos;
+    private final AtomicReference<Timeout> mScheduled; // stack of new timeouts
+    private final AtomicInteger mPendingCount;
+
+    private long mTick; // advancing thread only
+    private volatile Thread mThread;
+
+    /** Creates wheel with 10 milliseconds ticks and 512 buckets. */
+    public TimingWheel() {
+        this(10, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * Creates new wheel.
+     *
+     * @param tickDuration  duration of a tick, which is the precision of the wheel
+     * @param unit          unit of tick duration
+     * @param bucketsCount  number of buckets, rounded up to a power of two
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, int bucketsCount) {
+        if (tickDuration < 1) {
+            throw new IllegalArgumentException("Tick duration must be positive: " + tickDuration);
+        }
+        if (bucketsCount < 1 || bucketsCount > 1 << 30) {
+            throw new IllegalArgumentException("Illegal buckets count: " + bucketsCount);
+        }
+        int count = 1;
+        while (count < bucketsCount) {
+            count <<= 1;
+        }
+        mTickNanos = unit.toNanos(tickDuration);
+        mBuckets = new Bucket[count];
+        for (int i = 0; i < count; i++) {
+            mBuckets[i] = new Bucket();
+        }
+        mMask = count - 1;
+        mStartNanos = System.nanoTime();
+        mScheduled = new AtomicReference<>();
+        mPendingCount = new AtomicInteger();
+    }
+
+    //-- public api
+
+    /**
+     * Expires all timeouts with deadlines up to now. Must not be called concurrently.
+     * If a handler method throws, the exception is passed through and the rest of
+     * expired timeouts gets delivered by the next call.
+     */
+    public void advance() {
+        final long now = System.nanoTime() - mStartNanos;
+        transferScheduled();
+        while (mTickNanos * (mTick + 1) <= now) {
+            final Timeout expired = detachExpired(mBuckets[(int) (mTick & mMask)],
+                    mTickNanos * (mTick + 1));
+            mTick++; // before expiring, so that a throwing handler cannot stall the wheel
+            expire(expired);
+            transferScheduled(); // timeouts scheduled by handlers of expired events
+        }
+    }
+
+    /**
+     * Starts a daemon thread advancing the wheel once per tick. Only use it if all
+     * machines using this wheel are thread-safe.
+     *
+     * @see #advance()
+     */
+    public void start() {
+        start(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "tinymachine-timing-wheel");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts a thread advancing the wheel once per tick.
+     *
+     * @param threadFactory factory creating the thread
+     * @see #start()
+     */
+    public synchronized void start(ThreadFactory threadFactory) {
+        if (mThread != null) {
+            throw new IllegalStateException("Timing wheel has already been started.");
+        }
+        final Thread thread = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                final Thread self = Thread.currentThread();
+                while (mThread == self) {
+                    final long next = mStartNanos + mTickNanos * (mTick + 1);
+                    final long sleep = next - System.nanoTime();
+                    if (sleep > 0) {
+                        LockSupport.parkNanos(this, sleep);
+                        continue;
+                    }
+                    try {
+                        advance();
+                    } catch (Throwable e) {
+                        self.getUncaughtExceptionHandler().uncaughtException(self, e);
+                    }
+                }
+            }
+        });
+        mThread = thread;
+        thread.start();
+    }
+
+    /** Stops the thread started by {@link #start()}. Pending timeouts are kept. */
+    public synchronized void stop() {
+        final Thread thread = mThread;
+        mThread = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /** Returns number of scheduled timeouts, which are neither expired nor cancelled. */
+    public int getPendingCount() {
+        return mPendingCount.get();
+    }
+
+    //-- implementation
+
+    /** Schedules new timeout. Can be called from any thread. */
+    Timeout schedule(TinyMachine machine, Object event, boolean stateScoped, int epoch,
+                     long delay, TimeUnit unit) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Delay must not be negative: " + delay);
+        }
+        final Timeout timeout = new Timeout(this, machine, event, stateScoped, epoch,
+                System.nanoTime() - mStartNanos + unit.toNanos(delay));
+        mPendingCount.incrementAndGet();
+        Timeout head;
+        do {
+            head = mScheduled.get();
+            timeout.next = head;
+        } while (!mScheduled.compareAndSet(head, timeout));
+        return timeout;
+    }
+
+    private void transferScheduled() {
+        Timeout timeout = mScheduled.getAndSet(null);
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            timeout.next = null;
+            if (timeout.state == Timeout.STATE_PENDING) {
+                final long deadlineTick = Math.max(timeout.deadline / mTickNanos, mTick);
+                timeout.remainingRounds = (deadlineTick - mTick) / mBuckets.length;
+                mBuckets[(int) (deadlineTick & mMask)].add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Removes cancelled and expired timeouts from given bucket and counts down rounds
+     * of the other ones.
+     *
+     * @return chain of expired timeouts in bucket order
+     */
+    private static Timeout detachExpired(Bucket bucket, long tickDeadline) {
+        Timeout first = null;
+        Timeout last = null;
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            if (timeout.state != Timeout.STATE_PENDING) {
+                bucket.remove(timeout); // cancelled
+            } else if (timeout.remainingRounds <= 0 && timeout.deadline <= tickDeadline) {
+                bucket.remove(timeout);
+                if (first == null) {
+                    first = timeout;
+                } else {
+                    last.next = timeout;
+                }
+                last = timeout;
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+        return first;
+    }
+
+    /**
+     * Delivers chain of expired timeouts. If a handler throws, the rest of the chain is
+     * scheduled again, so that it gets delivered by the next call to {@link #advance()}.
+     */
+    private void expire(Timeout timeout) {
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            timeout.next = null;
+            try {
+                timeout.expire();
+            } catch (RuntimeException | Error e) {
+                reschedule(next);
+                throw e;
+            }
+            timeout = next;
+        }
+    }
+
+    private void reschedule(Timeout first) {
+        if (first == null) {
+            return;
+        }
+        Timeout last = first;
+        while (last.next != null) {
+            last = last.next;
+        }
+        Timeout head;
+        do {
+            head = mScheduled.get();
+            last.next = head;
+        } while (!mScheduled.compareAndSet(head, first));
+    }
+
+    //region Inner classes
+
+    /** Handle of a scheduled timeout. */
+    public static final class Timeout {
+
+        private static final int STATE_PENDING = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE
+                = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimingWheel wheel;
+        private final long deadline;
+        private final boolean stateScoped;
+        private final int epoch;
+        private TinyMachine machine;
+        private Object event;
+
+        private volatile int state;
+        private long remainingRounds;
+        private Timeout prev;
+        private Timeout next;
+
+        Timeout(TimingWheel wheel, TinyMachine machine, Object event, boolean stateScoped,
+                int epoch, long deadline) {
+            this.wheel = wheel;
+            this.machine = machine;
+            this.event = event;
+            this.stateScoped = stateScoped;
+            this.epoch = epoch;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels this timeout. Can be called from any thread.
+         *
+         * @return <code>true</code> if the timeout was cancelled, <code>false</code> if
+         *         it has already expired or been cancelled
+         */
+        public boolean cancel() {
+            if (STATE.compareAndSet(this, STATE_PENDING, STATE_CANCELLED)) {
+                wheel.mPendingCount.decrementAndGet();
+                machine = null; // wheel removes cancelled timeout from its bucket later
+                event = null;
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state == STATE_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == STATE_EXPIRED;
+        }
+
+        void expire() {
+            if (STATE.compareAndSet(this, STATE_PENDING, STATE_EXPIRED)) {
+                wheel.mPendingCount.decrementAndGet();
+                final TinyMachine expiredMachine = machine;
+                final Object expiredEvent = event;
+                machine = null;
+                event = null;
+                expiredMachine.onTimeout(expiredEvent, stateScoped, epoch);
+            }
+        }
+    }
+
+    /** Doubly linked list of timeouts. Advancing thread only. */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        public void add(Timeout timeout) {
+            if (tail == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        public void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = timeout.next = null;
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,1444 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import de.halfbit.tinymachine.HandlerTable.EventInvokers;
+import de.halfbit.tinymachine.HandlerTable.OnEntry;
+import de.halfbit.tinymachine.HandlerTable.OnExit;
+import de.halfbit.tinymachine.HandlerTable.TransitionPath;
+
+/**
+ * Finite-state machine implementation class.
+ * <p>
+ *     Once created <code>TinyMachine</code> is capable to accept events
+ *     and deliver them to a handler instance given in constructor. Handler
+ *     instance defines public methods with {@link de.halfbit.tinymachine.StateHandler}
+ *     annotation. Every method is intended to handler certain events in certain
+ *     state. You can have as many handler methods as you need.
+ *
+ * <p>
+ *     When you receive an event, you just need to forward it to a <code>TinyMachine</code>
+ *     instance and it will deliver it to the right handler method. Simply call
+ *     {@link #fireEvent(Object)} for this. If there is no handler method for given event
+ *     in given state, <code>TinyMachine</code> will silently ignore it.
+ *
+ * <p>
+ *     Transitions between states can be declared on the handler class with
+ *     {@link Transition} and {@link Transitions} annotations. Such a transition happens
+ *     when an event of given type arrives in given state, without calling a handler
+ *     method. Other transitions are programmed inside your handler methods. Call
+ *     {@link #transitionTo(int)} method to move your state machine into a new state.
+ *     In both cases <code>TinyMachine</code> will automatically fire
+ *     <code>Type.OnExit</code> event for the current state and <code>Type.OnEntry</code> event
+ *     for the new state. If there are handlers for this events, then they will be called.
+ *
+ * @author Sergej Shafarenka
+ */
+public class TinyMachine {
+
+    static final int CODE_FIRE_EVENT = 0;
+    static final int CODE_TRANSITION = 1;
+    static final int CODE_FIRE_TIMEOUT = 2;
+    static final int CODE_FIRE_EVENT_CODE = 3; // event code in state slot
+
+    static final int UNLIMITED = 0;
+
+    private static final byte SNAPSHOT_VERSION = 1;
+
+    private static final ConcurrentHashMap<Class<?>, Boolean> COALESCIBLE_CACHE
+            = new ConcurrentHashMap<>();
+
+    private static final AtomicReferenceFieldUpdater<TinyMachine, Extras> EXTRAS
+            = AtomicReferenceFieldUpdater.newUpdater(TinyMachine.class, Extras.class, "mExtras");
+
+    private static final Logger SILENT_LOGGER = new Logger() {
+        @Override
+        public void log(String tag, String message) {
+            // traces are discarded
+        }
+    };
+
+    private static volatile Logger sLogger;
+
+    /**
+     * Defines what happens to a new event, when the number of pending events
+     * reaches the limit of the queue.
+     *
+     * @see #setQueueLimit(int, int)
+     */
+    public static class OverflowPolicy {
+        /** New event is rejected with <code>IllegalStateException</code> */
+        public static final int Reject = 0;
+        /** New event is dropped */
+        public static final int DropNewest = 1;
+        /** Oldest pending event is dropped and new event is accepted */
+        public static final int DropOldest = 2;
+        /** Producer is blocked until there is space in the queue (concurrent machines only) */
+        public static final int Block = 3;
+    }
+
+    /** Receives events which did not fit into the queue. */
+    public static interface OverflowListener {
+        void onOverflow(TinyMachine tm, Object event);
+    }
+
+    /** Receives state changes of a machine. */
+    public static interface StateListener {
+        void onStateChanged(TinyMachine tm, int fromState, int toState);
+    }
+
+    // instances are kept small, everything optional is allocated on first use
+    private final MachineDefinition mDefinition;
+    private final Object mContext;
+    private TaskQueue mTaskQueue;
+    private volatile Extras mExtras;
+    private int mCurrentState;
+    private boolean mQueueProcessed;
+
+    /**
+     * Creates new instance of FSM machine and assigns handler class
+     * with public methods handling state transitions and events. Handler
+     * methods must have {@link de.halfbit.tinymachine.StateHandler}
+     * annotation describing which event in which state it will handle.
+     *
+     * @param handler      instance with handler methods
+     * @param initialState initial state to put state machine into.
+     *                     <code>Type.OnEntry</code> event is not reported
+     *                     for the initial state.
+     */
+    public TinyMachine(Object handler, int initialState) {
+        this(handler, initialState, TaskQueue.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates new instance of FSM machine with given initial capacity of
+     * task queue. Queue grows if more tasks are pending at the same time.
+     *
+     * @param handler       instance with handler methods
+     * @param initialState  initial state to put state machine into.
+     *                      <code>Type.OnEntry</code> event is not reported
+     *                      for the initial state.
+     * @param queueCapacity initial capacity of task queue
+     * @see #TinyMachine(Object, int)
+     */
+    public TinyMachine(Object handler, int initialState, int queueCapacity) {
+        this(new MachineDefinition(handler, queueCapacity), initialState, null);
+    }
+
+    /**
+     * Creates new instance of FSM machine sharing handler of given definition with
+     * other machines. Handler methods get per-instance data with {@link #getContext()}.
+     *
+     * @param definition    definition with stateless handler
+     * @param initialState  initial state to put state machine into.
+     *                      <code>Type.OnEntry</code> event is not reported
+     *                      for the initial state.
+     * @param context       per-instance data or <code>null</code>
+     * @see MachineDefinition
+     */
+    public TinyMachine(MachineDefinition definition, int initialState, Object context) {
+        if (definition == null) {
+            throw new IllegalArgumentException("Definition must not be null.");
+        }
+        mDefinition = definition;
+        mContext = context;
+        mCurrentState = initialState;
+    }
+
+    //-- public api
+
+    /**
+     * Forwards an event into state machine. State machine will deliver the event to a
+     * handler methods responsible for its processing. If there is no handler method found,
+     * then event gets silently ignored and this call has no effect.
+     *
+     * @param event event to be delivered to a handler method
+     */
+    public void fireEvent(Object event) {
+        if (event == null) {
+            throw new IllegalArgumentException("Event must not be null.");
+        }
+        schedule(CODE_FIRE_EVENT, event, -1);
+    }
+
+    /**
+     * Forwards a batch of events into state machine. Events are processed in the same
+     * order as if {@link #fireEvent(Object)} was called for each of them, including
+     * transitions requested by handler methods. The whole batch is processed in a
+     * single pass without putting its events into the task queue.
+     *
+     * @param events events to be delivered to handler methods
+     * @throws IllegalArgumentException if any of events is <code>null</code>. No event
+     *                                  gets delivered in this case.
+     */
+    public void fireEvents(Object[] events) {
+        fireEvents(Arrays.asList(events));
+    }
+
+    /**
+     * Forwards a batch of events into state machine.
+     *
+     * @param events events to be delivered to handler methods
+     * @see #fireEvents(Object[])
+     */
+    public void fireEvents(Iterable<?> events) {
+        final Object[] batch = copyEvents(events);
+        if (mQueueProcessed) {
+            // called from a handler method, events are appended to the queue
+            for (Object event : batch) {
+                offerTask(CODE_FIRE_EVENT, event, -1, 0);
+            }
+            return;
+        }
+
+        mQueueProcessed = true;
+        try {
+            processQueuedTasks();
+            for (Object event : batch) {
+                final EventJournal journal = getJournal();
+                if (journal != null) {
+                    journal.append(CODE_FIRE_EVENT, event, -1, 0);
+                }
+                execute(CODE_FIRE_EVENT, event, -1);
+                processQueuedTasks();
+            }
+        } finally {
+            mQueueProcessed = false;
+        }
+        notifyDrained();
+    }
+
+    /**
+     * Forwards an event code into state machine.
+     *
+     * @param code  event code to be delivered to a handler method
+     * @see #fireEventCode(int, long)
+     */
+    public void fireEventCode(int code) {
+        fireEventCode(code, 0);
+    }
+
+    /**
+     * Forwards an event code with a payload into state machine. State machine will
+     * deliver it to the handler methods declaring this code in {@link StateHandler#code()}.
+     * Codes are not wrapped into event objects. If handler class has a generated
+     * dispatcher, payloads are not boxed either, so that firing and handling them
+     * allocates nothing. Reflective dispatching boxes the payload.
+     *
+     * @param code      event code to be delivered to a handler method
+     * @param payload   value given to the handler method
+     * @throws IllegalArgumentException if code is <code>StateHandler.NO_CODE</code>
+     */
+    public void fireEventCode(int code, long payload) {
+        if (code == StateHandler.NO_CODE) {
+            throw new IllegalArgumentException("Event code must not be NO_CODE.");
+        }
+        schedule(CODE_FIRE_EVENT_CODE, null, code, payload);
+    }
+
+    /**
+     * Moves state machine in a new given state. If state machine is already in that state,
+     * then this method has no effect. Otherwise, if exists, <code>Type.OnExit</code> event
+     * handler for the current state is called first and then <code>Type.OnEntry</code> event
+     * handler for new state is called.
+     *
+     * @param state new state to put state machine into
+     */
+    public void transitionTo(int state) {
+        schedule(CODE_TRANSITION, null, state);
+    }
+
+    /**
+     * Forwards an event into state machine after given delay. Machine must have a
+     * timing wheel.
+     *
+     * @param event event to be delivered to a handler method
+     * @param delay delay after which the event is fired
+     * @param unit  unit of the delay
+     * @return      timeout, which can be used for cancelling the event
+     * @see #setTimingWheel(TimingWheel)
+     */
+    public TimingWheel.Timeout fireEventDelayed(Object event, long delay, TimeUnit unit) {
+        if (event == null) {
+            throw new IllegalArgumentException("Event must not be null.");
+        }
+        return getTimingWheel().schedule(this, event, false, 0, delay, unit);
+    }
+
+    /**
+     * Sets timing wheel for delayed events and state timeouts. One timing wheel can be
+     * shared by many machines. Without a timing wheel, declared state timeouts are not
+     * scheduled anymore, until a timing wheel is set again.
+     *
+     * @param timingWheel   timing wheel or <code>null</code>
+     * @return              this instance
+     */
+    public TinyMachine setTimingWheel(TimingWheel timingWheel) {
+        final Extras extras = mExtras;
+        if (extras == null || extras.stateTimeouts == null) {
+            if (timingWheel == null) {
+                return this;
+            }
+            extras().stateTimeouts = new StateTimeouts();
+        }
+        mExtras.stateTimeouts.timingWheel = timingWheel;
+        return this;
+    }
+
+    /**
+     * Declares timeout of given state. Each time the machine enters the state, given
+     * event is scheduled to be fired after given timeout. The event is cancelled, when
+     * the machine leaves the state before the timeout has elapsed. Like with
+     * <code>OnEntry</code> handlers, timeout is not scheduled for the initial state.
+     * Machine must have a timing wheel.
+     *
+     * @param state         state with timeout
+     * @param timeout       timeout
+     * @param unit          unit of the timeout
+     * @param timeoutEvent  event to fire, when the timeout has elapsed
+     * @return              this instance
+     * @see #setTimingWheel(TimingWheel)
+     */
+    public TinyMachine setStateTimeout(int state, long timeout, TimeUnit unit,
+                                       Object timeoutEvent) {
+        if (timeoutEvent == null) {
+            throw new IllegalArgumentException("Timeout event must not be null.");
+        }
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+        }
+        final StateTimeouts timeouts = requireStateTimeouts();
+        if (timeouts.byState == null) {
+            timeouts.byState = new IntMap<>();
+        }
+        timeouts.byState.put(state, new StateTimeout(unit.toNanos(timeout), timeoutEvent));
+        return this;
+    }
+
+    /**
+     * Sets journal for appending events and transitions given to this machine, before
+     * they are processed. Set journal before events are fired and after the journal
+     * has been replayed.
+     *
+     * @param journal   journal or <code>null</code> to stop journaling
+     * @return          this instance
+     * @see EventJournal#replay(TinyMachine, long)
+     */
+    public TinyMachine setJournal(EventJournal journal) {
+        if (journal != null || mExtras != null) {
+            extras().journal = journal;
+        }
+        return this;
+    }
+
+    /**
+     * Enables traces and sets tag to be used for {@link Logger} output.
+     * <code>TinyMachine</code> will trace all processed events and state transitions including
+     * events for which there are no handlers. Text traces are expensive, consider using
+     * {@link #setTracer(MachineTracer)} in production.
+     *
+     * @param tag   the name of tag to be used in {@link Logger} output
+     * @return      this instance
+     */
+    public TinyMachine setTraceTag(String tag) {
+        if (tag == null) {
+            return setTracer(null);
+        }
+        final LoggingTracer tracer = new LoggingTracer(tag);
+        tracer.log(getCurrentState(), "current state");
+        return setTracer(tracer);
+    }
+
+    /**
+     * Sets tracer receiving structured traces of processed events and transitions.
+     * Set tracer before events are fired.
+     *
+     * @param tracer    tracer or <code>null</code> to disable tracing
+     * @return          this instance
+     */
+    public TinyMachine setTracer(MachineTracer tracer) {
+        if (tracer != null || mExtras != null) {
+            extras().tracer = tracer;
+        }
+        return this;
+    }
+
+    /**
+     * Enables metrics recording into given metrics instance. Same instance can be
+     * shared by multiple machines. Set metrics before events are fired.
+     *
+     * @param metrics   metrics or <code>null</code> to disable recording
+     * @return          this instance
+     */
+    public TinyMachine setMetrics(MachineMetrics metrics) {
+        if (metrics != null || mExtras != null) {
+            final Extras extras = extras();
+            extras.metrics = metrics;
+            extras.stateEnteredNanos = System.nanoTime();
+        }
+        return this;
+    }
+
+    /**
+     * Returns metrics set by {@link #setMetrics(MachineMetrics)} or <code>null</code>.
+     */
+    public MachineMetrics getMetrics() {
+        final Extras extras = mExtras;
+        return extras == null ? null : extras.metrics;
+    }
+
+    /**
+     * Adds listener receiving every transition of this machine.
+     *
+     * @param listener  listener to add
+     * @return          this instance
+     * @see #addStateListener(StateListener, boolean)
+     */
+    public TinyMachine addStateListener(StateListener listener) {
+        return addStateListener(listener, false);
+    }
+
+    /**
+     * Adds listener receiving state changes of this machine. Listeners are called on the
+     * thread processing the machine after the state has changed and before
+     * <code>OnEntry</code> handlers of the new state. Listeners are kept in a
+     * copy-on-write array, so that notifying them takes neither locks nor allocations.
+     * Listeners can be added and removed from any thread.
+     *
+     * <p>
+     *     Batched listener is called once after all pending tasks have been processed,
+     *     with the state before the first and after the last transition of the batch.
+     *     It is not called, if the machine has returned into the state it started from.
+     *
+     * @param listener  listener to add
+     * @param batched   <code>true</code> to receive one net change per processed batch,
+     *                  <code>false</code> to receive every transition
+     * @return          this instance
+     */
+    public TinyMachine addStateListener(StateListener listener, boolean batched) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null.");
+        }
+        addObserver(new StateListenerObserver(listener, batched));
+        return this;
+    }
+
+    /**
+     * Removes listener added by {@link #addStateListener(StateListener, boolean)}.
+     *
+     * @param listener  listener to remove
+     * @return          this instance
+     */
+    public TinyMachine removeStateListener(StateListener listener) {
+        final MachineObserver[] observers = getObservers();
+        if (observers != null) {
+            for (MachineObserver observer : observers) {
+                if (observer instanceof StateListenerObserver
+                        && ((StateListenerObserver) observer).listener == listener) {
+                    removeObserver(observer);
+                    break;
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds observer of processing. Can be called from any thread.
+     *
+     * @param observer  observer to be notified about transitions and drained queue
+     */
+    public final synchronized void addObserver(MachineObserver observer) {
+        if (observer == null) {
+            throw new IllegalArgumentException("Observer must not be null.");
+        }
+        final Extras extras = extras();
+        final MachineObserver[] observers = extras.observers;
+        if (observers == null) {
+            extras.observers = new MachineObserver[] {observer};
+        } else {
+            final MachineObserver[] copy = Arrays.copyOf(observers, observers.length + 1);
+            copy[observers.length] = observer;
+            extras.observers = copy;
+        }
+    }
+
+    /**
+     * Removes observer of processing. Can be called from any thread.
+     *
+     * @param observer  observer added before, unknown observers are ignored
+     */
+    public final synchronized void removeObserver(MachineObserver observer) {
+        final Extras extras = mExtras;
+        final MachineObserver[] observers = extras == null ? null : extras.observers;
+        if (observers == null) {
+            return;
+        }
+        for (int i = 0; i < observers.length; i++) {
+            if (observers[i] == observer) {
+                if (observers.length == 1) {
+                    extras.observers = null;
+                } else {
+                    final MachineObserver[] copy = new MachineObserver[observers.length - 1];
+                    System.arraycopy(observers, 0, copy, 0, i);
+                    System.arraycopy(observers, i + 1, copy, i, copy.length - i);
+                    extras.observers = copy;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sets logger receiving traces of all machines.
+     *
+     * @param logger    logger or <code>null</code> to resolve the default logger
+     * @see Logger
+     */
+    public static void setLogger(Logger logger) {
+        sLogger = logger;
+    }
+
+    /**
+     * Limits the number of pending events. Transitions are always accepted, but they
+     * count towards the limit. By default the number of pending events is unlimited.
+     * Configure the limit before events are fired.
+     *
+     * @param limit     maximum number of pending events
+     * @param policy    one of {@link OverflowPolicy} constants
+     * @return          this instance
+     */
+    public TinyMachine setQueueLimit(int limit, int policy) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        switch (policy) {
+            case OverflowPolicy.Reject:
+            case OverflowPolicy.DropNewest:
+            case OverflowPolicy.DropOldest:
+                break;
+            case OverflowPolicy.Block:
+                if (!canBlockProducers()) {
+                    throw new IllegalArgumentException(
+                            "Block policy is only supported by concurrent machines");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported overflow policy: " + policy);
+        }
+        final Extras extras = extras();
+        extras.queueLimit = limit;
+        extras.overflowPolicy = policy;
+        extras.overflowListener = null;
+        return this;
+    }
+
+    /**
+     * Limits the number of pending events. New events, which do not fit into the queue
+     * are dropped and given to the listener.
+     *
+     * @param limit     maximum number of pending events
+     * @param listener  listener receiving dropped events
+     * @return          this instance
+     * @see #setQueueLimit(int, int)
+     */
+    public TinyMachine setQueueLimit(int limit, OverflowListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null.");
+        }
+        setQueueLimit(limit, OverflowPolicy.DropNewest);
+        mExtras.overflowListener = listener;
+        return this;
+    }
+
+    /**
+     * Marks events of given class as coalescible for this machine. This is an alternative
+     * to annotating event class with {@link Coalescible}, useful for classes you
+     * cannot modify. Configure coalescible classes before events are fired.
+     *
+     * @param eventType class of events to coalesce
+     * @return          this instance
+     */
+    public TinyMachine setCoalescible(Class<?> eventType) {
+        if (eventType == null) {
+            throw new IllegalArgumentException("Event type must not be null.");
+        }
+        final Extras extras = extras();
+        if (extras.coalescibleTypes == null) {
+            extras.coalescibleTypes = new HashSet<>();
+        }
+        extras.coalescibleTypes.add(eventType);
+        return this;
+    }
+
+    /**
+     * Returns number of pending events replaced by newer events of the same class.
+     */
+    public long getCoalescedEventsCount() {
+        final Extras extras = mExtras;
+        return extras == null ? 0 : extras.coalescedEventsCount;
+    }
+
+    /**
+     * Returns number of events dropped because the queue was full.
+     */
+    public long getDroppedEventsCount() {
+        final Extras extras = mExtras;
+        return extras == null ? 0 : extras.droppedEventsCount;
+    }
+
+    /**
+     * Returns number of events rejected because the queue was full.
+     */
+    public long getRejectedEventsCount() {
+        final Extras extras = mExtras;
+        return extras == null ? 0 : extras.rejectedEventsCount;
+    }
+
+    /**
+     * Returns per-instance data given in constructor or <code>null</code>.
+     *
+     * @see #TinyMachine(MachineDefinition, int, Object)
+     */
+    public Object getContext() {
+        return mContext;
+    }
+
+    /**
+     * Returns current machine state.
+     *
+     * @return current machine state
+     */
+    public int getCurrentState() {
+        return mCurrentState;
+    }
+
+    /**
+     * Checks whether machine is in given state or in a state nested into it.
+     *
+     * @param state state to check
+     * @return      true if current state is given state or one of its nested states
+     * @see StateHierarchy
+     */
+    public boolean isInState(int state) {
+        final int currentState = getCurrentState();
+        return currentState == state || mDefinition.handlerTable.isParent(state, currentState);
+    }
+
+    /**
+     * Writes current state and pending tasks into given buffer. Call this method on the
+     * thread processing the machine, either inside a handler method or when the machine
+     * is idle. Futures of pending asynchronous tasks are not written. Delayed events
+     * still waiting in the timing wheel are not pending tasks and are not written either.
+     *
+     * <p>
+     *     Snapshot starts with a version byte followed by current state, state epoch and
+     *     the number of tasks, each as an int. Every task is written as a code byte and
+     *     a state int. Events of tasks are written by the codec, payloads of event codes
+     *     are written as a long. Deferred events are written as tasks in front of
+     *     pending tasks.
+     *
+     * @param buffer    buffer to write the snapshot to
+     * @param codec     codec writing events
+     * @throws java.nio.BufferOverflowException if buffer has not enough space
+     */
+    public void writeSnapshot(ByteBuffer buffer, EventCodec codec) {
+        buffer.put(SNAPSHOT_VERSION);
+        buffer.putInt(mCurrentState);
+        final StateTimeouts timeouts = getStateTimeouts();
+        buffer.putInt(timeouts == null ? 0 : timeouts.epoch);
+        final int countPosition = buffer.position();
+        buffer.putInt(0);
+        // deferred events go first, restoring processes and defers them again
+        int count = 0;
+        final TaskQueue deferred = getDeferred();
+        if (deferred != null) {
+            for (int i = 0, size = deferred.size(); i < size; i++) {
+                writeTask(buffer, codec, CODE_FIRE_EVENT, deferred.eventAt(i), -1, 0);
+            }
+            count = deferred.size();
+        }
+        buffer.putInt(countPosition, count + writeTasks(buffer, codec));
+    }
+
+    /**
+     * Restores current state and pending tasks from a snapshot written by
+     * {@link #writeSnapshot(ByteBuffer, EventCodec)}. Machine must be idle and must not
+     * have pending or deferred tasks. No <code>OnEntry</code> handlers are called for the
+     * restored state. Restored tasks are processed right away.
+     *
+     * <p>
+     *     State timeout of the restored state starts over. It is scheduled again, if the
+     *     machine has a timing wheel and a timeout for this state. Expired state timeouts,
+     *     which were pending in the snapshot, are dropped, whether there is a timing wheel
+     *     or not. Delayed events, which were still waiting in the timing wheel, are not
+     *     part of the snapshot and must be fired again. Expired delayed events pending in
+     *     the queue are restored like any other events.
+     *
+     * @param buffer    buffer to read the snapshot from
+     * @param codec     codec reading events
+     * @throws IllegalArgumentException if the snapshot is corrupted or truncated. Neither
+     *                                  the machine nor the position of the buffer is
+     *                                  changed in this case.
+     * @throws IllegalStateException    if the machine is not idle. Buffer is not read
+     *                                  in this case.
+     */
+    public void restoreSnapshot(ByteBuffer buffer, EventCodec codec) {
+        final TaskQueue deferred = getDeferred();
+        if (!isIdle() || (deferred != null && !deferred.isEmpty())) {
+            throw new IllegalStateException("Machine must be idle to be restored.");
+        }
+
+        // snapshot is read completely before the machine gets changed
+        final int position = buffer.position();
+        final int state;
+        final int epoch;
+        final TaskQueue tasks = new TaskQueue(TaskQueue.DEFAULT_CAPACITY);
+        boolean read = false;
+        try {
+            final byte version = buffer.get();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IllegalArgumentException("Unsupported snapshot version: " + version);
+            }
+            state = buffer.getInt();
+            epoch = buffer.getInt();
+            final int count = buffer.getInt();
+            if (count < 0) {
+                throw new IllegalArgumentException("Corrupted snapshot, tasks count: " + count);
+            }
+            for (int i = 0; i < count; i++) {
+                final int code = buffer.get();
+                final int taskState = buffer.getInt();
+                final long payload = code == CODE_FIRE_EVENT_CODE ? buffer.getLong() : 0;
+                final Object event = readTaskEvent(buffer, codec, code);
+                if (code != CODE_FIRE_TIMEOUT) {
+                    tasks.offer(code, event, taskState, payload);
+                }
+            }
+            read = true;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Corrupted snapshot, buffer underflow.", e);
+        } finally {
+            if (!read) {
+                buffer.position(position);
+            }
+        }
+
+        mCurrentState = state;
+        onCurrentStateChanged(state);
+        final StateTimeouts timeouts = getStateTimeouts();
+        if (timeouts != null) {
+            timeouts.epoch = epoch;
+            updateStateTimeout(timeouts, state);
+        }
+        restoreTasks(tasks);
+    }
+
+    //-- implementation
+
+    /** Enqueues new task without payload. */
+    final void schedule(int code, Object event, int state) {
+        schedule(code, event, state, 0);
+    }
+
+    /**
+     * Enqueues new task and processes task queue, if it is not processed yet. Concurrent
+     * machines override this method to enqueue tasks from multiple threads.
+     */
+    void schedule(int code, Object event, int state, long payload) {
+        if (mQueueProcessed) {
+            offerTask(code, event, state, payload);
+            return;
+        }
+        // machine is idle, the task comes from outside and gets processed right away
+        final EventJournal journal = getJournal();
+        if (mTaskQueue != null && !mTaskQueue.isEmpty()) {
+            // tasks left by a failed handler method are processed first, the task is
+            // journaled only if accepted, or as the replacement of a coalesced event
+            if (offerTask(code, event, state, payload) && journal != null) {
+                journal.append(code, event, state, payload);
+            }
+            processTaskQueue();
+            return;
+        }
+        if (journal != null) {
+            journal.append(code, event, state, payload);
+        }
+        // nothing is pending, the task is executed without passing the queue
+        mQueueProcessed = true;
+        try {
+            execute(code, event, state, payload);
+            processQueuedTasks();
+        } finally {
+            mQueueProcessed = false;
+        }
+        notifyDrained();
+    }
+
+    /** Writes pending tasks and returns their number. */
+    int writeTasks(ByteBuffer buffer, EventCodec codec) {
+        final TaskQueue queue = mTaskQueue;
+        final int size = queue == null ? 0 : queue.size();
+        for (int i = 0; i < size; i++) {
+            writeTask(buffer, codec, queue.codeAt(i), queue.eventAt(i), queue.stateAt(i),
+                    queue.payloadAt(i));
+        }
+        return size;
+    }
+
+    /** Returns true if machine is neither processed nor has pending tasks. */
+    boolean isIdle() {
+        return !mQueueProcessed && !hasPendingTasks();
+    }
+
+    /** Puts tasks read from a snapshot into the queue of idle machine and processes them. */
+    void restoreTasks(TaskQueue tasks) {
+        if (!tasks.isEmpty()) {
+            taskQueue().prependAll(tasks);
+        }
+        processTaskQueue();
+    }
+
+    static void writeTask(ByteBuffer buffer, EventCodec codec, int code, Object event,
+                          int state, long payload) {
+        buffer.put((byte) code);
+        buffer.putInt(state);
+        if (code == CODE_FIRE_EVENT_CODE) {
+            buffer.putLong(payload);
+        } else if (code != CODE_TRANSITION) {
+            codec.encode(event, buffer);
+        }
+    }
+
+    static Object readTaskEvent(ByteBuffer buffer, EventCodec codec, int code) {
+        switch (code) {
+            case CODE_TRANSITION:
+            case CODE_FIRE_EVENT_CODE:
+                return null;
+            case CODE_FIRE_EVENT:
+            case CODE_FIRE_TIMEOUT:
+                final Object event = codec.decode(buffer);
+                if (event == null) {
+                    throw new IllegalArgumentException("Codec decoded null event.");
+                }
+                return event;
+            default:
+                throw new IllegalArgumentException("Corrupted snapshot, task code: " + code);
+        }
+    }
+
+    /**
+     * Applies a transition declared with {@link Transition}. If there are no pending
+     * tasks, the transition is executed right away. Otherwise it is queued after them,
+     * like a transition requested by a handler method.
+     */
+    final void applyTransition(int state) {
+        if (hasPendingTasks()) {
+            schedule(CODE_TRANSITION, null, state);
+        } else {
+            execute(CODE_TRANSITION, null, state);
+        }
+    }
+
+    /** Parks an event deferred in current state. Called by the thread processing the machine. */
+    final void defer(Object event) {
+        final Extras extras = extras();
+        if (extras.deferred == null) {
+            extras.deferred = new TaskQueue(mDefinition.queueCapacity);
+        }
+        extras.deferred.offer(CODE_FIRE_EVENT, event, -1);
+    }
+
+    /**
+     * Puts deferred events in front of pending tasks after a transition. Concurrent
+     * machines override this method to process them before their own queue.
+     */
+    void resumeDeferred(TaskQueue deferred) {
+        taskQueue().prependAll(deferred);
+    }
+
+    /** Returns true if there are tasks waiting to be processed. */
+    boolean hasPendingTasks() {
+        return mTaskQueue != null && !mTaskQueue.isEmpty();
+    }
+
+    /** Returns true if producers can be blocked when the queue is full. */
+    boolean canBlockProducers() {
+        return false;
+    }
+
+    /** Returns queue limit or {@link #UNLIMITED}. */
+    final int getQueueLimit() {
+        final Extras extras = mExtras;
+        return extras == null ? UNLIMITED : extras.queueLimit;
+    }
+
+    /** Returns overflow policy, meaningful when the queue is limited. */
+    final int getOverflowPolicy() {
+        final Extras extras = mExtras;
+        return extras == null ? 0 : extras.overflowPolicy;
+    }
+
+    /** Returns journal set by {@link #setJournal(EventJournal)} or <code>null</code>. */
+    final EventJournal getJournal() {
+        final Extras extras = mExtras;
+        return extras == null ? null : extras.journal;
+    }
+
+    /**
+     * Handles a new event which does not fit into the queue according to
+     * <code>Reject</code> and <code>DropNewest</code> policies.
+     */
+    final void dropOrReject(Object event) {
+        final Extras extras = mExtras; // queue is limited, so extras exist
+        if (extras.overflowPolicy == OverflowPolicy.Reject) {
+            Extras.REJECTED_EVENTS_COUNT.incrementAndGet(extras);
+            throw new IllegalStateException("Task queue is full, limit: " + extras.queueLimit);
+        }
+        Extras.DROPPED_EVENTS_COUNT.incrementAndGet(extras);
+        final OverflowListener listener = extras.overflowListener;
+        if (listener != null) {
+            listener.onOverflow(this, event);
+        }
+    }
+
+    /** Tells observers that all pending tasks have been processed. */
+    final void notifyDrained() {
+        final MachineObserver[] observers = getObservers();
+        if (observers != null) {
+            for (MachineObserver observer : observers) {
+                observer.onDrained(this);
+            }
+        }
+    }
+
+    /**
+     * Copies a batch of events into an array, so that the batch gets iterated only once,
+     * and validates the copy.
+     */
+    static Object[] copyEvents(Iterable<?> events) {
+        final Object[] batch;
+        if (events instanceof Collection) {
+            batch = ((Collection<?>) events).toArray();
+        } else {
+            final ArrayList<Object> list = new ArrayList<>();
+            for (Object event : events) {
+                list.add(event);
+            }
+            batch = list.toArray();
+        }
+        for (Object event : batch) {
+            if (event == null) {
+                throw new IllegalArgumentException("Event must not be null.");
+            }
+        }
+        return batch;
+    }
+
+    /** Returns true if task with given code delivers an event and counts towards the limit. */
+    static boolean isEventTask(int code) {
+        return code == CODE_FIRE_EVENT || code == CODE_FIRE_EVENT_CODE;
+    }
+
+    /** Returns true if pending events of given class can be replaced by newer ones. */
+    final boolean isCoalescible(Class<?> eventType) {
+        final Extras extras = mExtras;
+        if (extras != null && extras.coalescibleTypes != null
+                && extras.coalescibleTypes.contains(eventType)) {
+            return true;
+        }
+        Boolean coalescible = COALESCIBLE_CACHE.get(eventType);
+        if (coalescible == null) {
+            coalescible = eventType.isAnnotationPresent(Coalescible.class);
+            COALESCIBLE_CACHE.put(eventType, coalescible);
+        }
+        return coalescible;
+    }
+
+    /** Counts an event replaced by a newer event. */
+    final void onEventCoalesced() {
+        Extras.COALESCED_EVENTS_COUNT.incrementAndGet(extras());
+    }
+
+    /** Counts an event dropped by <code>DropOldest</code> policy. */
+    final void onOldestDropped() {
+        Extras.DROPPED_EVENTS_COUNT.incrementAndGet(extras());
+    }
+
+    /** Called by timing wheel when a timeout has elapsed. */
+    final void onTimeout(Object event, boolean stateScoped, int epoch) {
+        schedule(stateScoped ? CODE_FIRE_TIMEOUT : CODE_FIRE_EVENT, event, epoch);
+    }
+
+    /** Called after current state has changed. */
+    void onCurrentStateChanged(int state) {
+        // nothing by default
+    }
+
+    /** Executes single task without payload. */
+    final void execute(int code, Object event, int state) {
+        execute(code, event, state, 0);
+    }
+
+    /** Executes single task by calling handler methods. */
+    final void execute(int code, Object event, int state, long payload) {
+        final HandlerTable table = mDefinition.handlerTable;
+        switch (code) {
+
+            case CODE_FIRE_TIMEOUT:
+            case CODE_FIRE_EVENT: {
+                if (code == CODE_FIRE_TIMEOUT && !isCurrentEpoch(state)) {
+                    break; // machine has left the state before the timeout was processed
+                }
+                // event type is resolved once for both, current state and STATE_ANY
+                final EventInvokers invokers = table.getEventInvokers(event.getClass());
+                final Invoker invoker = invokers == null ? null : invokers.get(mCurrentState);
+                if (invoker == Invoker.DEFER) {
+                    defer(event); // handlers of STATE_ANY receive the event once resumed
+                    break;
+                }
+                final Invoker anyInvoker = invokers == null ? null : invokers.anyInvoker;
+                final Extras extras = mExtras;
+                if (extras == null) {
+                    invoke(anyInvoker, event);
+                    invoke(invoker, event);
+                    break;
+                }
+                final MachineTracer tracer = extras.tracer;
+                if (tracer != null) {
+                    if (anyInvoker == null && invoker == null) {
+                        tracer.onUnhandled(this, mCurrentState, event);
+                    } else {
+                        tracer.onEvent(this, mCurrentState, event);
+                    }
+                }
+                final MachineMetrics metrics = extras.metrics;
+                if (metrics == null) {
+                    invoke(anyInvoker, event);
+                    invoke(invoker, event);
+                } else {
+                    if (anyInvoker == null && invoker == null) {
+                        metrics.onUnhandled(mCurrentState);
+                    }
+                    invokeMeasured(metrics, anyInvoker, event, StateHandler.STATE_ANY);
+                    invokeMeasured(metrics, invoker, event, mCurrentState);
+                }
+                break;
+            }
+
+            case CODE_FIRE_EVENT_CODE: {
+                final Invoker anyInvoker = table.getCodeInvoker(StateHandler.STATE_ANY, state);
+                final Invoker invoker = table.getCodeInvoker(mCurrentState, state);
+                final Extras extras = mExtras;
+                if (extras == null) {
+                    invokeCode(anyInvoker, payload);
+                    invokeCode(invoker, payload);
+                    break;
+                }
+                final MachineTracer tracer = extras.tracer;
+                if (tracer != null) {
+                    tracer.onEventCode(this, mCurrentState, state, payload,
+                            anyInvoker != null || invoker != null);
+                }
+                final MachineMetrics metrics = extras.metrics;
+                if (metrics == null) {
+                    invokeCode(anyInvoker, payload);
+                    invokeCode(invoker, payload);
+                } else {
+                    if (anyInvoker == null && invoker == null) {
+                        metrics.onUnhandled(mCurrentState);
+                    }
+                    invokeCodeMeasured(metrics, anyInvoker, payload, StateHandler.STATE_ANY);
+                    invokeCodeMeasured(metrics, invoker, payload, mCurrentState);
+                }
+                break;
+            }
+
+            case CODE_TRANSITION: {
+                if (mCurrentState != state) {
+                    final TransitionPath path = table.getTransitionPath(mCurrentState, state);
+                    fire(OnExit.class, StateHandler.STATE_ANY);
+                    if (path == null) {
+                        fire(OnExit.class, mCurrentState);
+                    } else {
+                        invokeAll(path.exits);
+                    }
+                    final int fromState = mCurrentState;
+                    mCurrentState = state;
+                    onCurrentStateChanged(state);
+                    final Extras extras = mExtras;
+                    if (extras != null) {
+                        onTransition(extras, fromState, state);
+                    }
+                    fire(OnEntry.class, StateHandler.STATE_ANY);
+                    if (path == null) {
+                        fire(OnEntry.class, mCurrentState);
+                    } else {
+                        invokeAll(path.entries);
+                    }
+                    final TaskQueue deferred = getDeferred();
+                    if (deferred != null && !deferred.isEmpty()) {
+                        resumeDeferred(deferred);
+                    }
+                }
+                break;
+            }
+
+            default: throw new IllegalStateException("wrong code: " + code);
+        }
+    }
+
+    /** Reports transition to tracer, observers, timeouts and metrics set up in extras. */
+    private void onTransition(Extras extras, int fromState, int toState) {
+        if (extras.tracer != null) {
+            extras.tracer.onTransition(this, fromState, toState);
+        }
+        final MachineObserver[] observers = extras.observers;
+        if (observers != null) {
+            for (MachineObserver observer : observers) {
+                observer.onTransition(this, fromState, toState);
+            }
+        }
+        if (extras.stateTimeouts != null) {
+            updateStateTimeout(extras.stateTimeouts, toState);
+        }
+        if (extras.metrics != null) {
+            final long now = System.nanoTime();
+            extras.metrics.onTransition(fromState, toState, now - extras.stateEnteredNanos);
+            extras.stateEnteredNanos = now;
+        }
+    }
+
+    /**
+     * Puts task into the queue.
+     *
+     * @return <code>true</code> if the task was queued or replaced a pending event,
+     *         <code>false</code> if it was dropped
+     */
+    private boolean offerTask(int code, Object event, int state, long payload) {
+        final TaskQueue queue = taskQueue();
+        if (code == CODE_FIRE_EVENT && !queue.isEmpty()
+                && isCoalescible(event.getClass())
+                && queue.replaceLastEvent(CODE_FIRE_EVENT, event, CODE_TRANSITION)) {
+            onEventCoalesced();
+            return true;
+        }
+        final Extras extras = mExtras;
+        if (extras == null) {
+            queue.offer(code, event, state, payload);
+            return true;
+        }
+        if (isEventTask(code) && extras.queueLimit != UNLIMITED
+                && queue.size() >= extras.queueLimit) {
+            if (extras.overflowPolicy != OverflowPolicy.DropOldest) {
+                dropOrReject(code == CODE_FIRE_EVENT_CODE ? Integer.valueOf(state) : event);
+                return false;
+            }
+            if (queue.removeFirst(CODE_FIRE_EVENT, CODE_FIRE_EVENT_CODE)) {
+                onOldestDropped();
+            }
+        }
+        queue.offer(code, event, state, payload);
+        if (extras.metrics != null) {
+            extras.metrics.onQueueDepth(queue.size());
+        }
+        return true;
+    }
+
+    private TaskQueue taskQueue() {
+        if (mTaskQueue == null) {
+            mTaskQueue = new TaskQueue(mDefinition.queueCapacity);
+        }
+        return mTaskQueue;
+    }
+
+    private void processTaskQueue() {
+        mQueueProcessed = true;
+        try {
+            processQueuedTasks();
+        } finally {
+            mQueueProcessed = false;
+        }
+        notifyDrained();
+    }
+
+    private void processQueuedTasks() {
+        final TaskQueue queue = mTaskQueue;
+        if (queue == null) {
+            return;
+        }
+        while (!queue.isEmpty()) {
+            final int code = queue.headCode();
+            final Object event = queue.headEvent();
+            final int state = queue.headState();
+            final long payload = queue.headPayload();
+            queue.removeHead();
+            final MachineMetrics metrics = getMetrics();
+            if (metrics != null) {
+                metrics.onQueueDepth(queue.size());
+            }
+            execute(code, event, state, payload);
+        }
+    }
+
+    private void fire(Class<?> handlerType, int state) {
+        invoke(mDefinition.handlerTable.getInvoker(state, handlerType), null);
+    }
+
+    private void invokeAll(Invoker[] invokers) {
+        for (Invoker invoker : invokers) {
+            invoke(invoker, null);
+        }
+    }
+
+    private void updateStateTimeout(StateTimeouts timeouts, int state) {
+        timeouts.epoch++;
+        if (timeouts.scheduled != null) {
+            timeouts.scheduled.cancel();
+            timeouts.scheduled = null;
+        }
+        final StateTimeout timeout = timeouts.byState == null ? null : timeouts.byState.get(state);
+        if (timeout != null && timeouts.timingWheel != null) {
+            timeouts.scheduled = timeouts.timingWheel.schedule(this, timeout.event, true,
+                    timeouts.epoch, timeout.nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private boolean isCurrentEpoch(int epoch) {
+        final StateTimeouts timeouts = getStateTimeouts();
+        return epoch == (timeouts == null ? 0 : timeouts.epoch);
+    }
+
+    private TimingWheel getTimingWheel() {
+        return requireStateTimeouts().timingWheel;
+    }
+
+    private StateTimeouts requireStateTimeouts() {
+        final StateTimeouts timeouts = getStateTimeouts();
+        if (timeouts == null || timeouts.timingWheel == null) {
+            throw new IllegalStateException("Timing wheel must be set first.");
+        }
+        return timeouts;
+    }
+
+    private StateTimeouts getStateTimeouts() {
+        final Extras extras = mExtras;
+        return extras == null ? null : extras.stateTimeouts;
+    }
+
+    private TaskQueue getDeferred() {
+        final Extras extras = mExtras;
+        return extras == null ? null : extras.deferred;
+    }
+
+    private MachineObserver[] getObservers() {
+        final Extras extras = mExtras;
+        return extras == null ? null : extras.observers;
+    }
+
+    /** Returns extras of this machine, allocating them on first use. */
+    private Extras extras() {
+        final Extras extras = mExtras;
+        if (extras != null) {
+            return extras;
+        }
+        EXTRAS.compareAndSet(this, null, new Extras());
+        return mExtras;
+    }
+
+    private void invokeMeasured(MachineMetrics metrics, Invoker invoker, Object event,
+                                int state) {
+        if (invoker == null) {
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            invoke(invoker, event);
+        } finally {
+            metrics.onHandled(state, event.getClass(), System.nanoTime() - start);
+        }
+    }
+
+    private void invokeCodeMeasured(MachineMetrics metrics, Invoker invoker, long payload,
+                                    int state) {
+        if (invoker == null) {
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            invokeCode(invoker, payload);
+        } finally {
+            metrics.onHandled(state, int.class, System.nanoTime() - start);
+        }
+    }
+
+    private void invokeCode(Invoker invoker, long payload) {
+        if (invoker == null) {
+            return; // no handler, exit
+        }
+        try {
+            invoker.invokeCode(mDefinition.handler, payload, this);
+        } catch (Exception e) {
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else {
+                throw new IllegalStateException("Exception in @StateEventHandler method. "
+                        + "See stack trace for more details", e);
+            }
+        }
+    }
+
+    private void invoke(Invoker invoker, Object event) {
+        if (invoker == null) {
+            return; // no handler, exit
+        }
+        try {
+            invoker.invoke(mDefinition.handler, event, this);
+        } catch (Exception e) {
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else {
+                throw new IllegalStateException("Exception in @StateEventHandler method. "
+                        + "See stack trace for more details", e);
+            }
+        }
+    }
+
+    static Logger getLogger() {
+        Logger logger = sLogger;
+        if (logger == null) {
+            logger = loadLogger();
+            sLogger = logger;
+        }
+        return logger;
+    }
+
+    private static Logger loadLogger() {
+        try {
+            final Iterator<Logger> loggers = ServiceLoader.load(Logger.class,
+                    TinyMachine.class.getClassLoader()).iterator();
+            if (loggers.hasNext()) {
+                return loggers.next();
+            }
+        } catch (ServiceConfigurationError e) {
+            // registered logger cannot be instantiated, e.g. it was removed by shrinker
+        }
+        return SILENT_LOGGER;
+    }
+
+    //region Inner classes
+
+    /** Optional configuration and statistics of a machine, allocated on first use. */
+    private static final class Extras {
+
+        static final AtomicLongFieldUpdater<Extras> DROPPED_EVENTS_COUNT
+                = AtomicLongFieldUpdater.newUpdater(Extras.class, "droppedEventsCount");
+        static final AtomicLongFieldUpdater<Extras> REJECTED_EVENTS_COUNT
+                = AtomicLongFieldUpdater.newUpdater(Extras.class, "rejectedEventsCount");
+        static final AtomicLongFieldUpdater<Extras> COALESCED_EVENTS_COUNT
+                = AtomicLongFieldUpdater.newUpdater(Extras.class, "coalescedEventsCount");
+
+        HashSet<Class<?>> coalescibleTypes;
+        volatile long droppedEventsCount;
+        volatile long rejectedEventsCount;
+        volatile long coalescedEventsCount;
+        int queueLimit = UNLIMITED;
+        int overflowPolicy;
+        OverflowListener overflowListener;
+        MachineTracer tracer;
+        MachineMetrics metrics;
+        long stateEnteredNanos;
+        StateTimeouts stateTimeouts;
+        TaskQueue deferred;
+        EventJournal journal;
+        volatile MachineObserver[] observers;
+    }
+
+    /** Timing wheel and timeouts of states, allocated when timing wheel is set. */
+    private static final class StateTimeouts {
+
+        TimingWheel timingWheel;
+        IntMap<StateTimeout> byState;
+        TimingWheel.Timeout scheduled;
+        int epoch;
+    }
+
+    /** Adapts state listener to machine observer, collecting net change of a batch. */
+    private static final class StateListenerObserver implements MachineObserver {
+
+        public final StateListener listener;
+        private final boolean mBatched;
+        private boolean mChanged;
+        private int mFromState;
+        private int mToState;
+
+        StateListenerObserver(StateListener listener, boolean batched) {
+            this.listener = listener;
+            mBatched = batched;
+        }
+
+        @Override
+        public void onTransition(TinyMachine tm, int fromState, int toState) {
+            if (!mBatched) {
+                listener.onStateChanged(tm, fromState, toState);
+                return;
+            }
+            if (!mChanged) {
+                mChanged = true;
+                mFromState = fromState;
+            }
+            mToState = toState;
+        }
+
+        @Override
+        public void onDrained(TinyMachine tm) {
+            if (mChanged) {
+                mChanged = false;
+                if (mFromState != mToState) {
+                    listener.onStateChanged(tm, mFromState, mToState);
+                }
+            }
+        }
+    }
+
+    private static final class StateTimeout {
+
+        public final long nanos;
+        public final Object event;
+
+        StateTimeout(long nanos, Object event) {
+            this.nanos = nanos;
+            this.event = event;
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Group of keyed state machines processed by a fixed set of worker threads, called
+ * stripes. Every key is hashed onto a stripe and its machine is only ever touched by
+ * the thread of this stripe. This is why machines of a group are plain single-threaded
+ * <code>TinyMachine</code> instances, which are processed without any locking.
+ *
+ * <p>
+ *     Machines are created lazily by given {@link Factory} when the first event or
+ *     transition for a key arrives. Events and transitions for the same key are
+ *     processed in the order they were accepted.
+ *
+ * <p>
+ *     Exceptions thrown by handler methods are given to the uncaught exception handler
+ *     of stripe's thread, after which the stripe continues processing of its tasks.
+ *
+ * @param <K>   type of machine keys
+ * @author Sergej Shafarenka
+ */
+public class TinyMachineGroup<K> {
+
+    private static final int CODE_REMOVE = -1;
+
+    /** Creates machines for new keys. Factory is called on the thread of key's stripe. */
+    public static interface Factory<K> {
+        TinyMachine create(K key);
+    }
+
+    private final Stripe<K>[] mStripes;
+
+    /**
+     * Creates new group with given number of stripes and starts stripe threads.
+     *
+     * @param stripesCount  number of stripes, usually the number of available cores
+     * @param factory       factory creating machines for new keys
+     */
+    public TinyMachineGroup(int stripesCount, Factory<K> factory) {
+        this(stripesCount, factory, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "tinymachine-stripe-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Creates new group with given number of stripes and starts stripe threads.
+     *
+     * @param stripesCount  number of stripes, usually the number of available cores
+     * @param factory       factory creating machines for new keys
+     * @param threadFactory factory creating stripe threads
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TinyMachineGroup(int stripesCount, Factory<K> factory, ThreadFactory threadFactory) {
+        if (stripesCount < 1) {
+            throw new IllegalArgumentException("Stripes count must be positive: " + stripesCount);
+        }
+        if (factory == null) {
+            throw new IllegalArgumentException("Factory must not be null.");
+        }
+        mStripes = new Stripe[stripesCount];
+        for (int i = 0; i < stripesCount; i++) {
+            mStripes[i] = new Stripe<>(factory);
+            mStripes[i].thread = threadFactory.newThread(mStripes[i]);
+        }
+        for (Stripe<K> stripe : mStripes) {
+            stripe.thread.start();
+        }
+    }
+
+    //-- public api
+
+    /**
+     * Forwards an event to the machine with given key. Can be called from any thread.
+     *
+     * @param key   key of the machine
+     * @param event event to be delivered to a handler method
+     * @see TinyMachine#fireEvent(Object)
+     */
+    public void fireEvent(K key, Object event) {
+        if (event == null) {
+            throw new IllegalArgumentException("Event must not be null.");
+        }
+        getStripe(key).offer(new Task<>(key, TinyMachine.CODE_FIRE_EVENT, event, -1));
+    }
+
+    /**
+     * Moves the machine with given key into a new state. Can be called from any thread.
+     *
+     * @param key   key of the machine
+     * @param state new state to put the machine into
+     * @see TinyMachine#transitionTo(int)
+     */
+    public void transitionTo(K key, int state) {
+        getStripe(key).offer(new Task<>(key, TinyMachine.CODE_TRANSITION, null, state));
+    }
+
+    /**
+     * Removes the machine with given key after all its pending tasks are processed.
+     * Next event for this key will create a new machine.
+     *
+     * @param key   key of the machine
+     */
+    public void remove(K key) {
+        getStripe(key).offer(new Task<>(key, CODE_REMOVE, null, -1));
+    }
+
+    /** Returns number of stripes in this group. */
+    public int getStripesCount() {
+        return mStripes.length;
+    }
+
+    /** Returns number of tasks waiting in the queue of given stripe. */
+    public int getQueueDepth(int stripe) {
+        return Math.max(0, mStripes[stripe].depth.get());
+    }
+
+    /** Returns maximum number of tasks ever waiting in the queue of given stripe. */
+    public int getMaxQueueDepth(int stripe) {
+        return mStripes[stripe].maxDepth.get();
+    }
+
+    /** Returns number of tasks processed by given stripe. */
+    public long getProcessedCount(int stripe) {
+        return mStripes[stripe].processedCount;
+    }
+
+    /** Returns number of machines owned by given stripe. */
+    public int getMachinesCount(int stripe) {
+        return mStripes[stripe].machinesCount;
+    }
+
+    /**
+     * Stops stripe threads after they have processed already accepted tasks.
+     * Tasks accepted after this call are ignored.
+     */
+    public void shutdown() {
+        for (Stripe<K> stripe : mStripes) {
+            stripe.running = false;
+            LockSupport.unpark(stripe.thread);
+        }
+    }
+
+    /**
+     * Waits until all stripe threads have stopped after {@link #shutdown()} call.
+     *
+     * @return <code>true</code> if all threads stopped, <code>false</code> if timeout elapsed
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Stripe<K> stripe : mStripes) {
+            final long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (millis <= 0) {
+                return false;
+            }
+            stripe.thread.join(millis);
+            if (stripe.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //-- implementation
+
+    private Stripe<K> getStripe(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return mStripes[(hash & 0x7fffffff) % mStripes.length];
+    }
+
+    //region Inner classes
+
+    private static final class Task<K> {
+
+        public final K key;
+        public final int code;
+        public final Object event;
+        public final int state;
+
+        Task(K key, int code, Object event, int state) {
+            this.key = key;
+            this.code = code;
+            this.event = event;
+            this.state = state;
+        }
+    }
+
+    private static final class Stripe<K> implements Runnable {
+
+        private final Factory<K> mFactory;
+        private final ConcurrentLinkedQueue<Task<K>> mQueue;
+        private final HashMap<K, TinyMachine> mMachines; // stripe thread only
+
+        public final AtomicInteger depth;
+        public final AtomicInteger maxDepth;
+        public volatile long processedCount;
+        public volatile int machinesCount;
+        public volatile boolean running;
+        public Thread thread;
+
+        Stripe(Factory<K> factory) {
+            mFactory = factory;
+            mQueue = new ConcurrentLinkedQueue<>();
+            mMachines = new HashMap<>();
+            depth = new AtomicInteger();
+            maxDepth = new AtomicInteger();
+            running = true;
+        }
+
+        /** Can be called from any thread. */
+        public void offer(Task<K> task) {
+            mQueue.offer(task);
+            final int previous = depth.getAndIncrement();
+            if (previous == 0) {
+                LockSupport.unpark(thread);
+            }
+            final int current = previous + 1;
+            int max;
+            while (current > (max = maxDepth.get())) {
+                if (maxDepth.compareAndSet(max, current)) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            Task<K> task;
+            boolean accepting;
+            for (;;) {
+                // read the flag first, so that an empty queue means all accepted tasks are done
+                accepting = running;
+                task = mQueue.poll();
+                if (task == null) {
+                    if (!accepting) {
+                        return;
+                    }
+                    if (depth.get() == 0) {
+                        LockSupport.park(this);
+                    }
+                    continue;
+                }
+                depth.decrementAndGet();
+                try {
+                    process(task);
+                } catch (Throwable e) {
+                    final Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+                processedCount++; // single writer
+            }
+        }
+
+        private void process(Task<K> task) {
+            if (task.code == CODE_REMOVE) {
+                if (mMachines.remove(task.key) != null) {
+                    machinesCount = mMachines.size();
+                }
+                return;
+            }
+
+            TinyMachine machine = mMachines.get(task.key);
+            if (machine == null) {
+                machine = mFactory.create(task.key);
+                if (machine == null) {
+                    throw new IllegalStateException("Factory returned null for key: " + task.key);
+                }
+                mMachines.put(task.key, machine);
+                machinesCount = mMachines.size();
+            }
+
+            if (task.code == TinyMachine.CODE_FIRE_EVENT) {
+                machine.fireEvent(task.event);
+            } else {
+                machine.transitionTo(task.state);
+            }
+        }
+    }
+
+    //endregion
+
+}
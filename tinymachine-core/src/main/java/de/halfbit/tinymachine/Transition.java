@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Apply this annotation to handler classes to declare a transition, which happens
+ * when an event of given type arrives in given state. Declared transitions replace
+ * handler methods doing nothing but calling {@link TinyMachine#transitionTo(int)}.
+ * <p>
+ *     Declared transitions are resolved together with handler methods, so that
+ *     delivering an event costs a single table lookup and no handler method call.
+ *     <code>OnExit</code> and <code>OnEntry</code> handlers are called as usual.
+ *     A state cannot have both a declared transition and a handler method for the
+ *     same event type. Transitions from <code>StateHandler.STATE_ANY</code> are
+ *     queued like the ones requested by handler methods, because handlers of current
+ *     state still receive the event. Use {@link Transitions} to declare multiple
+ *     transitions.
+ *
+ * <pre>
+ * &#64;Transitions({
+ *     &#64;Transition(from = STATE_IDLE, on = StartEvent.class, to = STATE_RUNNING),
+ *     &#64;Transition(from = STATE_RUNNING, on = StopEvent.class, to = STATE_IDLE)
+ * })
+ * public class EngineHandler { ... }
+ * </pre>
+ *
+ * @author Sergej Shafarenka
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Transition {
+
+    /**
+     * Defines in which state this transition must be active
+     * @return  a state constant
+     */
+    int from();
+
+    /**
+     * Defines type of event triggering this transition
+     * @return  the type of event
+     */
+    Class<?> on();
+
+    /**
+     * Defines the state to put the machine into
+     * @return  a state constant
+     */
+    int to();
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/** Counts bytes allocated by the current thread, if the JVM supports it. */
+public final class Allocations {
+
+    private static final ThreadMXBean BEAN = ManagementFactory.getThreadMXBean();
+    private static final Method ALLOCATED_BYTES = findAllocatedBytes();
+
+    private Allocations() {
+    }
+
+    public static boolean isSupported() {
+        return ALLOCATED_BYTES != null;
+    }
+
+    /**
+     * Runs given task once to warm up and then three more times.
+     *
+     * @return the smallest number of bytes allocated by a single run
+     */
+    public static long measure(Runnable task) throws Exception {
+        if (!isSupported()) {
+            throw new IllegalStateException("Counting allocations is not supported.");
+        }
+        final long threadId = Thread.currentThread().getId();
+        task.run();
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            final long before = (Long) ALLOCATED_BYTES.invoke(BEAN, threadId);
+            task.run();
+            min = Math.min(min, (Long) ALLOCATED_BYTES.invoke(BEAN, threadId) - before);
+        }
+        return min;
+    }
+
+    private static Method findAllocatedBytes() {
+        try {
+            return Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception e) {
+            return null; // not supported by this JVM
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+
+public class AsyncTinyMachineTest extends TestCase {
+
+    private static final int STATE_INITIAL = 0;
+    private static final int STATE_FINAL = 1;
+
+    private ExecutorService mExecutor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        mExecutor = null;
+        super.tearDown();
+    }
+
+    public void testEventsProcessedInOrder() throws Exception {
+        final Callbacks handler = new Callbacks() {
+            @StateHandler(state = STATE_INITIAL)
+            public void onEvent(Integer event, TinyMachine tm) {
+                onCallback(event);
+                if (event == 3) {
+                    tm.transitionTo(STATE_FINAL);
+                }
+            }
+
+            @StateHandler(state = STATE_FINAL, type = Type.OnEntry)
+            public void onFinalEntry(TinyMachine tm) {
+                onCallback(new OnEntry(tm.getCurrentState()));
+            }
+        };
+        AsyncTinyMachine tinyMachine = new AsyncTinyMachine(handler, STATE_INITIAL, mExecutor);
+
+        tinyMachine.fireEvent(1);
+        tinyMachine.fireEventAsync(2);
+        tinyMachine.fireEventAsync(3);
+
+        // transition requested by handler becomes a no-op, if it comes second
+        tinyMachine.transitionToAsync(STATE_FINAL).get(5, TimeUnit.SECONDS);
+
+        assertEquals(STATE_FINAL, tinyMachine.getCurrentState());
+        handler.assertEqualEvents(1, 2, 3, new OnEntry(STATE_FINAL));
+    }
+
+    public void testBlockingHandlerDoesNotBlockCaller() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Callbacks handler = new Callbacks() {
+            @StateHandler(state = STATE_INITIAL)
+            public void onEvent(String event) throws InterruptedException {
+                latch.await();
+                onCallback(event);
+            }
+        };
+        AsyncTinyMachine tinyMachine = new AsyncTinyMachine(handler, STATE_INITIAL, mExecutor);
+
+        Future<Void> future1 = tinyMachine.fireEventAsync("event1");
+        Future<Void> future2 = tinyMachine.fireEventAsync("event2");
+        assertFalse(future1.isDone());
+        assertFalse(future2.isDone());
+
+        latch.countDown();
+        future2.get(5, TimeUnit.SECONDS);
+        assertTrue(future1.isDone());
+        handler.assertEqualEvents("event1", "event2");
+    }
+
+    public void testTransitionFuture() throws Exception {
+        AsyncTinyMachine tinyMachine = new AsyncTinyMachine(new Object(), STATE_INITIAL, mExecutor);
+        tinyMachine.transitionToAsync(STATE_FINAL).get(5, TimeUnit.SECONDS);
+        assertEquals(STATE_FINAL, tinyMachine.getCurrentState());
+    }
+
+    public void testHandlerExceptionFailsFuture() throws Exception {
+        final IllegalStateException exception = new IllegalStateException();
+        final Callbacks handler = new Callbacks() {
+            @StateHandler(state = STATE_INITIAL)
+            public void onEvent(String event) {
+                if ("fail".equals(event)) {
+                    throw exception;
+                }
+                onCallback(event);
+            }
+        };
+        AsyncTinyMachine tinyMachine = new AsyncTinyMachine(handler, STATE_INITIAL, mExecutor);
+
+        Future<Void> failed = tinyMachine.fireEventAsync("fail");
+        Future<Void> succeeded = tinyMachine.fireEventAsync("event");
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("ExecutionException is expected");
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+        succeeded.get(5, TimeUnit.SECONDS);
+        handler.assertEqualEvents("event");
+    }
+
+    public void testHandlerErrorPropagates() throws Exception {
+        final Error error = new Error();
+        final Callbacks handler = new Callbacks() {
+            @StateHandler(state = STATE_INITIAL)
+            public void onEvent(String event) {
+                if ("fail".equals(event)) {
+                    throw error;
+                }
+                onCallback(event);
+            }
+        };
+        ManualExecutor executor = new ManualExecutor();
+        AsyncTinyMachine tinyMachine = new AsyncTinyMachine(handler, STATE_INITIAL, executor);
+
+        Future<Void> failed = tinyMachine.fireEventAsync("fail");
+        Future<Void> pending = tinyMachine.fireEventAsync("event1");
+        try {
+            executor.runNext();
+            fail("Error is expected");
+        } catch (Error e) {
+            assertSame(error, e);
+        }
+        assertTrue(failed.isDone());
+        assertFalse(pending.isDone());
+
+        // machine is released, remaining tasks get processed with the next one
+        tinyMachine.fireEventAsync("event2");
+        executor.runNext();
+        assertTrue(pending.isDone());
+        handler.assertEqualEvents("event1", "event2");
+    }
+
+    public void testBusyMachineGivesThreadBack() throws Exception {
+        final Callbacks handler = new Callbacks() {
+            @StateHandler(state = STATE_INITIAL)
+            public void onEvent(Integer event) {
+                onCallback(event);
+            }
+        };
+        ManualExecutor executor = new ManualExecutor();
+        AsyncTinyMachine tinyMachine = new AsyncTinyMachine(handler, STATE_INITIAL, executor);
+
+        final int count = AsyncTinyMachine.DRAIN_BATCH_SIZE * 2 + 1;
+        for (int i = 0; i < count; i++) {
+            tinyMachine.fireEventAsync(i);
+        }
+        assertEquals(1, executor.tasks.size());
+
+        executor.runNext();
+        assertEquals(AsyncTinyMachine.DRAIN_BATCH_SIZE, handler.getEventsCount());
+        assertEquals(1, executor.tasks.size()); // resubmitted
+
+        executor.runNext();
+        executor.runNext();
+        assertEquals(count, handler.getEventsCount());
+        assertTrue(executor.tasks.isEmpty());
+
+        // drained machine is started by the next event again
+        tinyMachine.fireEventAsync(count);
+        assertEquals(1, executor.tasks.size());
+    }
+
+    private static class ManualExecutor implements Executor {
+
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runNext() {
+            tasks.remove().run();
+        }
+    }
+
+}
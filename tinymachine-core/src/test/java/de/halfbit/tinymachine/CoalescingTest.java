@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+
+public class CoalescingTest extends TestCase {
+
+    private static final int STATE_A = 0;
+    private static final int STATE_B = 1;
+
+    @Coalescible
+    private static class Progress {
+        public final int value;
+        Progress(int value) {
+            this.value = value;
+        }
+    }
+
+    private static class ProgressHandler {
+
+        public final List<String> events = new ArrayList<>();
+        public final CountDownLatch gate = new CountDownLatch(1);
+        public final CountDownLatch entered = new CountDownLatch(1);
+
+        @StateHandler(state = StateHandler.STATE_ANY)
+        public void onProgress(Progress progress) {
+            events.add("progress " + progress.value);
+        }
+
+        @StateHandler(state = StateHandler.STATE_ANY)
+        public void onCount(Integer count) {
+            events.add("count " + count);
+        }
+
+        @StateHandler(state = STATE_A)
+        public void onStart(String event, TinyMachine tm) {
+            events.add(event);
+            if ("gate".equals(event)) {
+                entered.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return;
+            }
+            tm.fireEvent(new Progress(1));
+            tm.fireEvent(1);
+            tm.fireEvent(new Progress(2));
+            tm.fireEvent(2);
+            tm.transitionTo(STATE_B);
+            tm.fireEvent(new Progress(3));
+            tm.fireEvent(new Progress(4));
+        }
+
+        @StateHandler(state = STATE_B, type = Type.OnEntry)
+        public void onEntryB() {
+            events.add("entry B");
+        }
+    }
+
+    public void testCoalesceAnnotatedEvents() throws Exception {
+        ProgressHandler handler = new ProgressHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A);
+
+        tinyMachine.fireEvent("start");
+
+        assertEquals(Arrays.asList("start", "progress 2", "count 1", "count 2",
+                "entry B", "progress 4"), handler.events);
+        assertEquals(2, tinyMachine.getCoalescedEventsCount());
+    }
+
+    public void testCoalesceRegisteredEvents() throws Exception {
+        ProgressHandler handler = new ProgressHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A)
+                .setCoalescible(Integer.class);
+
+        tinyMachine.fireEvent("start");
+
+        assertEquals(Arrays.asList("start", "progress 2", "count 2",
+                "entry B", "progress 4"), handler.events);
+        assertEquals(3, tinyMachine.getCoalescedEventsCount());
+    }
+
+    public void testConcurrentCoalescing() throws Exception {
+        final ProgressHandler handler = new ProgressHandler();
+        final TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, STATE_A);
+
+        Thread drainer = new Thread() {
+            @Override
+            public void run() {
+                tinyMachine.fireEvent("gate");
+            }
+        };
+        drainer.start();
+        assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i <= 100; i++) {
+            tinyMachine.fireEvent(new Progress(i));
+        }
+        tinyMachine.transitionTo(STATE_B);
+        tinyMachine.fireEvent(new Progress(101));
+        tinyMachine.fireEvent(new Progress(102));
+
+        handler.gate.countDown();
+        drainer.join(5000);
+
+        assertEquals(Arrays.asList("gate", "progress 100", "entry B", "progress 102"),
+                handler.events);
+        assertEquals(100, tinyMachine.getCoalescedEventsCount());
+    }
+
+    public void testCoalescingDoesNotCrossAsyncTransition() throws Exception {
+        final ArrayList<Runnable> tasks = new ArrayList<>();
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        final ProgressHandler handler = new ProgressHandler();
+        final AsyncTinyMachine tinyMachine = new AsyncTinyMachine(handler, STATE_A, executor);
+
+        tinyMachine.fireEvent(new Progress(1));
+        Future<Void> transition = tinyMachine.transitionToAsync(STATE_B);
+        tinyMachine.fireEvent(new Progress(2));
+        tinyMachine.fireEvent(new Progress(3));
+
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+
+        assertTrue(transition.isDone());
+        assertEquals(Arrays.asList("progress 1", "entry B", "progress 3"), handler.events);
+        assertEquals(1, tinyMachine.getCoalescedEventsCount());
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+
+public class ConcurrentTinyMachineTest extends TestCase {
+
+    private static final int STATE_COUNTING = 0;
+    private static final int STATE_DONE = 1;
+
+    private static final int THREADS = 8;
+    private static final int EVENTS_PER_THREAD = 10000;
+
+    private static class CountingHandler {
+
+        private final AtomicInteger mActiveHandlers = new AtomicInteger();
+        public int eventsCount; // not thread-safe on purpose
+        public int entriesCount;
+        public boolean concurrentCall;
+
+        @StateHandler(state = STATE_COUNTING)
+        public void onEvent(Integer event, TinyMachine tm) {
+            enter();
+            eventsCount++;
+            if (eventsCount == THREADS * EVENTS_PER_THREAD) {
+                tm.transitionTo(STATE_DONE);
+            }
+            exit();
+        }
+
+        @StateHandler(state = STATE_DONE, type = Type.OnEntry)
+        public void onDoneEntry() {
+            enter();
+            entriesCount++;
+            exit();
+        }
+
+        private void enter() {
+            if (mActiveHandlers.incrementAndGet() != 1) {
+                concurrentCall = true;
+            }
+        }
+
+        private void exit() {
+            mActiveHandlers.decrementAndGet();
+        }
+    }
+
+    public void testConcurrentEvents() throws Exception {
+        final CountingHandler handler = new CountingHandler();
+        final TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, STATE_COUNTING);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < EVENTS_PER_THREAD; j++) {
+                        tinyMachine.fireEvent(j);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertFalse(handler.concurrentCall);
+        assertEquals(STATE_DONE, tinyMachine.getCurrentState());
+        assertEquals(THREADS * EVENTS_PER_THREAD, handler.eventsCount);
+        assertEquals(1, handler.entriesCount);
+    }
+
+    public void testStacklessProcessing() {
+        final Callbacks handler = new Callbacks() {
+            @StateHandler(state = 0)
+            public void onEvent(String event, TinyMachine tm) {
+                onCallback(event);
+                if ("event1".equals(event)) {
+                    tm.fireEvent("event2");
+                    tm.transitionTo(1);
+                    onCallback("after");
+                }
+            }
+
+            @StateHandler(state = 0, type = Type.OnExit)
+            public void onExit(TinyMachine tm) {
+                onCallback(new OnExit(tm.getCurrentState()));
+            }
+        };
+        TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, 0);
+        tinyMachine.fireEvent("event1");
+
+        handler.assertEqualEvents("event1", "after", "event2", new OnExit(0));
+        assertEquals(1, tinyMachine.getCurrentState());
+    }
+
+    public void testFireEvents() {
+        final Callbacks handler = new Callbacks() {
+            @StateHandler(state = 0)
+            public void onEvent(String event, TinyMachine tm) {
+                onCallback(event);
+                if ("event1".equals(event)) {
+                    tm.transitionTo(1);
+                }
+            }
+
+            @StateHandler(state = 1)
+            public void onFinalEvent(String event) {
+                onCallback("final-" + event);
+            }
+        };
+        TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, 0);
+        tinyMachine.fireEvents(new Object[] {"event1", "event2"});
+        tinyMachine.fireEvents(Arrays.asList("event3"));
+
+        // transition is queued after the rest of the batch
+        handler.assertEqualEvents("event1", "event2", "final-event3");
+    }
+
+    public void testExceptionReleasesMachine() {
+        final Callbacks handler = new Callbacks() {
+            @StateHandler(state = 0)
+            public void onEvent(String event) {
+                onCallback(event);
+                if ("fail".equals(event)) {
+                    throw new IllegalStateException();
+                }
+            }
+        };
+        TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, 0);
+        try {
+            tinyMachine.fireEvent("fail");
+            fail("IllegalStateException is expected");
+        } catch (IllegalStateException e) {
+            // OK
+        }
+        tinyMachine.fireEvent("event");
+        handler.assertEqualEvents("fail", "event");
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+import de.halfbit.tinymachine.StateHierarchy.Parent;
+
+public class DeferTest extends TestCase {
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_BUSY = 1;
+    private static final int STATE_BUSY_NESTED = 2;
+
+    @Defer(state = STATE_BUSY, events = {String.class})
+    @StateHierarchy({
+            @Parent(state = STATE_BUSY_NESTED, parent = STATE_BUSY)
+    })
+    public static class WorkerHandler extends Callbacks {
+
+        @StateHandler(state = StateHandler.STATE_ANY)
+        public void onAnyString(String event) {
+            onCallback("any:" + event);
+        }
+
+        @StateHandler(state = STATE_IDLE)
+        public void onIdleString(String event) {
+            onCallback("idle:" + event);
+        }
+
+        @StateHandler(state = STATE_IDLE, type = Type.OnEntry)
+        public void onIdleEntry(TinyMachine tm) {
+            tm.fireEvent("entry");
+        }
+
+        @StateHandler(state = STATE_BUSY)
+        public void onBusyState(Integer state, TinyMachine tm) {
+            tm.transitionTo(state);
+        }
+    }
+
+    @Defer(state = StateHandler.STATE_ANY, events = {String.class})
+    public static class DeferInAnyStateHandler {
+    }
+
+    @Defer(state = STATE_IDLE, events = {String.class})
+    public static class DeferAndHandleHandler {
+
+        @StateHandler(state = STATE_IDLE)
+        public void onIdleString(String event) {
+        }
+    }
+
+    /** Encodes strings only. */
+    private static class StringCodec implements EventCodec {
+
+        @Override
+        public void encode(Object event, ByteBuffer buffer) {
+            final byte[] bytes = ((String) event).getBytes();
+            buffer.putInt(bytes.length).put(bytes);
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer) {
+            final byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            return new String(bytes);
+        }
+    }
+
+    public void testDeferredEventsResumedAfterTransition() {
+        WorkerHandler handler = new WorkerHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_BUSY);
+        assertDeferredEventsResumed(handler, tinyMachine);
+    }
+
+    public void testDeferredEventsResumedByConcurrentMachine() {
+        WorkerHandler handler = new WorkerHandler();
+        TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, STATE_BUSY);
+        assertDeferredEventsResumed(handler, tinyMachine);
+    }
+
+    public void testNestedStateDefersAgain() {
+        WorkerHandler handler = new WorkerHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_BUSY);
+
+        tinyMachine.fireEvent("a");
+        tinyMachine.fireEvent(STATE_BUSY_NESTED);
+        tinyMachine.fireEvent("b");
+        assertEquals(STATE_BUSY_NESTED, tinyMachine.getCurrentState());
+        assertEquals(0, handler.getEventsCount());
+
+        tinyMachine.fireEvent(STATE_IDLE);
+        handler.assertEqualEvents("any:a", "idle:a", "any:b", "idle:b",
+                "any:entry", "idle:entry");
+    }
+
+    public void testSnapshotKeepsDeferredEvents() {
+        WorkerHandler handler = new WorkerHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_BUSY);
+        tinyMachine.fireEvent("a");
+        tinyMachine.fireEvent("b");
+
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        tinyMachine.writeSnapshot(buffer, new StringCodec());
+        buffer.flip();
+
+        WorkerHandler restoredHandler = new WorkerHandler();
+        TinyMachine restored = new TinyMachine(restoredHandler, STATE_IDLE);
+        restored.restoreSnapshot(buffer, new StringCodec());
+        assertEquals(STATE_BUSY, restored.getCurrentState());
+        assertEquals(0, restoredHandler.getEventsCount());
+
+        restored.fireEvent(STATE_IDLE);
+        restoredHandler.assertEqualEvents("any:a", "idle:a", "any:b", "idle:b",
+                "any:entry", "idle:entry");
+    }
+
+    public void testDeferInAnyStateIsError() {
+        try {
+            new TinyMachine(new DeferInAnyStateHandler(), STATE_IDLE);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testDeferAndHandleIsError() {
+        try {
+            new TinyMachine(new DeferAndHandleHandler(), STATE_IDLE);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertDeferredEventsResumed(WorkerHandler handler,
+                                                    TinyMachine tinyMachine) {
+        tinyMachine.fireEvent("a");
+        tinyMachine.fireEvent("b");
+        assertEquals(0, handler.getEventsCount());
+
+        // deferred events go before the event fired by OnEntry handler
+        tinyMachine.fireEvent(STATE_IDLE);
+        assertEquals(STATE_IDLE, tinyMachine.getCurrentState());
+        handler.assertEqualEvents("any:a", "idle:a", "any:b", "idle:b",
+                "any:entry", "idle:entry");
+
+        handler.clearEvents();
+        tinyMachine.fireEvent("c");
+        handler.assertEqualEvents("any:c", "idle:c");
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+
+public class DispatcherTest extends TestCase {
+
+    private static final int STATE_INITIAL = 0;
+    private static final int STATE_FINAL = 1;
+
+    // must be accessible for generated dispatcher
+    public static class TinyHandler extends Callbacks {
+
+        @StateHandler(state = STATE_INITIAL)
+        public void onInitialString(String event, TinyMachine tm) {
+            onCallback(event);
+            tm.transitionTo(STATE_FINAL);
+        }
+
+        @StateHandler(state = STATE_INITIAL, type = Type.OnExit)
+        public void onInitialExit(TinyMachine tm) {
+            onCallback(new OnExit(tm.getCurrentState()));
+        }
+
+        @StateHandler(state = STATE_FINAL, type = Type.OnEntry)
+        public void onFinalEntry(TinyMachine tm) {
+            onCallback(new OnEntry(tm.getCurrentState()));
+        }
+
+        @StateHandler(state = StateHandler.STATE_ANY)
+        public void onAnyInteger(Integer event) {
+            onCallback(event);
+        }
+
+    }
+
+    public void testDispatcherGenerated() throws Exception {
+        Class<?> dispatcherClass = Class.forName(TinyHandler.class.getName() + Dispatcher.SUFFIX);
+        assertTrue(Dispatcher.class.isAssignableFrom(dispatcherClass));
+    }
+
+    public void testDispatcherDeliversEvents() {
+        TinyHandler handler = new TinyHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_INITIAL);
+
+        tinyMachine.fireEvent(Integer.valueOf(1));
+        tinyMachine.fireEvent("event1");
+        tinyMachine.fireEvent("event2");
+        tinyMachine.fireEvent(Integer.valueOf(2));
+
+        handler.assertEqualEvents(
+                Integer.valueOf(1),
+                "event1",
+                new OnExit(STATE_INITIAL),
+                new OnEntry(STATE_FINAL),
+                Integer.valueOf(2)
+        );
+    }
+
+}
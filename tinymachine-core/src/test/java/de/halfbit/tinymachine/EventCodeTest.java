@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import de.halfbit.tinymachine.TinyMachine.OverflowPolicy;
+
+public class EventCodeTest extends TestCase {
+
+    private static final int STATE_A = 0;
+    private static final int STATE_B = 1;
+
+    private static final int CODE_PING = 1;
+    private static final int CODE_VALUE = 2;
+    private static final int CODE_SWITCH = 3;
+    private static final int CODE_BURST = 4;
+
+    public static class CodeHandler extends Callbacks {
+
+        public long sum;
+
+        @StateHandler(state = STATE_A, code = CODE_PING)
+        public void onPing() {
+            onCallback("ping");
+        }
+
+        @StateHandler(state = STATE_A, code = CODE_VALUE)
+        public void onValue(long payload) {
+            onCallback(payload);
+        }
+
+        @StateHandler(state = STATE_A, code = CODE_SWITCH)
+        public void onSwitch(long payload, TinyMachine tm) {
+            tm.transitionTo(STATE_B);
+            tm.fireEventCode(CODE_VALUE, payload);
+        }
+
+        @StateHandler(state = STATE_B, code = CODE_VALUE)
+        public void onValueB(long payload) {
+            onCallback("B" + payload);
+        }
+
+        @StateHandler(state = StateHandler.STATE_ANY, code = CODE_PING)
+        public void onPingAny(long payload) {
+            onCallback("any" + payload);
+        }
+
+        @StateHandler(state = STATE_A)
+        public void onEvent(Long event) {
+            onCallback("object" + event);
+        }
+    }
+
+    public static class SumHandler {
+
+        public long sum;
+
+        @StateHandler(state = STATE_A, code = CODE_VALUE)
+        public void onValue(long payload) {
+            sum += payload;
+        }
+
+        @StateHandler(state = STATE_A, code = CODE_BURST)
+        public void onBurst(long payload, TinyMachine tm) {
+            for (int i = 0; i < 10; i++) {
+                tm.fireEventCode(CODE_VALUE, payload);
+            }
+        }
+    }
+
+    /** Codec for machines firing event codes only. */
+    private static final EventCodec NO_EVENTS = new EventCodec() {
+        @Override
+        public void encode(Object event, ByteBuffer buffer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private CodeHandler mHandler;
+    private TinyMachine mTinyMachine;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHandler = new CodeHandler();
+        mTinyMachine = new TinyMachine(mHandler, STATE_A);
+    }
+
+    public void testCodesDelivered() {
+        mTinyMachine.fireEventCode(CODE_PING);
+        mTinyMachine.fireEventCode(CODE_VALUE, 42);
+        mTinyMachine.fireEvent(42L);
+        mTinyMachine.fireEventCode(99);
+
+        mHandler.assertEqualEvents("any0", "ping", 42L, "object42");
+    }
+
+    public void testCodesQueuedWithPayload() {
+        mTinyMachine.fireEventCode(CODE_SWITCH, Long.MAX_VALUE);
+
+        assertEquals(STATE_B, mTinyMachine.getCurrentState());
+        mHandler.assertEqualEvents("B" + Long.MAX_VALUE);
+    }
+
+    public void testNoCodeRejected() {
+        try {
+            mTinyMachine.fireEventCode(StateHandler.NO_CODE);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testConcurrentMachine() {
+        TinyMachine tinyMachine = new ConcurrentTinyMachine(mHandler, STATE_A);
+        tinyMachine.fireEventCode(CODE_VALUE, 7);
+        tinyMachine.fireEventCode(CODE_SWITCH, 8);
+
+        assertEquals(STATE_B, tinyMachine.getCurrentState());
+        mHandler.assertEqualEvents(7L, "B8");
+    }
+
+    public void testQueueLimitCountsCodes() {
+        SumHandler handler = new SumHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A)
+                .setQueueLimit(5, OverflowPolicy.DropNewest);
+        tinyMachine.fireEventCode(CODE_BURST, 1);
+
+        assertEquals(5, handler.sum);
+        assertEquals(5, tinyMachine.getDroppedEventsCount());
+    }
+
+    public void testSnapshot() {
+        final ByteBuffer buffer = ByteBuffer.allocate(64);
+        TinyMachine tinyMachine = new TinyMachine(new Object() {
+            @StateHandler(state = STATE_A, code = CODE_SWITCH)
+            public void onSwitch(long payload, TinyMachine tm) {
+                tm.fireEventCode(CODE_VALUE, payload);
+                tm.writeSnapshot(buffer, NO_EVENTS);
+            }
+        }, STATE_A);
+        tinyMachine.fireEventCode(CODE_SWITCH, -5);
+
+        buffer.flip();
+        mTinyMachine.restoreSnapshot(buffer, NO_EVENTS);
+        mHandler.assertEqualEvents(-5L);
+    }
+
+    public void testJournal() throws Exception {
+        File file = File.createTempFile("journal", ".bin");
+        try {
+            EventJournal journal = new EventJournal(file, NO_EVENTS);
+            mTinyMachine.setJournal(journal);
+            mTinyMachine.fireEventCode(CODE_VALUE, 3);
+            mTinyMachine.fireEventCode(CODE_SWITCH, 4);
+            journal.close();
+
+            CodeHandler handler = new CodeHandler();
+            EventJournal replayJournal = new EventJournal(file, NO_EVENTS);
+            assertEquals(2, replayJournal.replay(new TinyMachine(handler, STATE_A), 0));
+            replayJournal.close();
+            handler.assertEqualEvents(3L, "B4");
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    public void testNoAllocations() throws Exception {
+        if (!Allocations.isSupported()) {
+            return;
+        }
+        SumHandler handler = new SumHandler();
+        final TinyMachine tinyMachine = new TinyMachine(handler, STATE_A);
+        fire(tinyMachine, 20000); // warm up, grow the queue and allocate payloads
+
+        final long allocated = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                fire(tinyMachine, 10000);
+            }
+        });
+        // measuring itself allocates a little, 110000 boxed longs would take megabytes
+        assertTrue("allocated bytes: " + allocated, allocated < 1024);
+    }
+
+    private static void fire(TinyMachine tinyMachine, int count) {
+        for (int i = 0; i < count; i++) {
+            tinyMachine.fireEventCode(CODE_VALUE, i);
+            tinyMachine.fireEventCode(CODE_BURST, i);
+        }
+    }
+
+}
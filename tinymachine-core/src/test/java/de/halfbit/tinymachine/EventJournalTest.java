@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+
+public class EventJournalTest extends TestCase {
+
+    private static final int STATE_A = 0;
+    private static final int STATE_B = 1;
+
+    private static class IntegerCodec implements EventCodec {
+
+        @Override
+        public void encode(Object event, ByteBuffer buffer) {
+            buffer.putInt((Integer) event);
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+    }
+
+    private static class Handler {
+
+        public final List<Object> events = new ArrayList<>();
+
+        @StateHandler(state = STATE_A)
+        public void onEvent(Integer event, TinyMachine tm) {
+            events.add(event);
+            if (event == 3) {
+                tm.fireEvent(30); // not journaled, fired by handler again on replay
+                tm.transitionTo(STATE_B);
+            }
+        }
+
+        @StateHandler(state = STATE_B)
+        public void onEventB(Integer event) {
+            events.add("B" + event);
+        }
+
+        @StateHandler(state = STATE_A, type = Type.OnEntry)
+        public void onEntryA() {
+            events.add("entry A");
+        }
+    }
+
+    private static class FailingHandler {
+
+        public final List<Object> events = new ArrayList<>();
+        private final boolean mFail;
+
+        FailingHandler(boolean fail) {
+            mFail = fail;
+        }
+
+        @StateHandler(state = STATE_A)
+        public void onEvent(Integer event, TinyMachine tm) {
+            events.add(event);
+            if (event == 0) {
+                tm.fireEvent(10);
+                if (mFail) {
+                    throw new IllegalStateException("leaves fired event in the queue");
+                }
+            }
+        }
+    }
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("journal", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testReplay() throws Exception {
+        Handler handler = new Handler();
+        EventJournal journal = new EventJournal(mFile, new IntegerCodec())
+                .setSyncInterval(1, TimeUnit.SECONDS);
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A).setJournal(journal);
+        tinyMachine.fireEvent(1);
+        tinyMachine.fireEvents(new Object[] {2, 3});
+        tinyMachine.fireEvent(4);
+        tinyMachine.transitionTo(STATE_A);
+        tinyMachine.fireEvent(5);
+        journal.close();
+
+        // five events and one transition, 30 is fired by a handler and is not journaled
+        assertEquals(5 * (9 + 4) + 9, mFile.length());
+
+        Handler replayedHandler = new Handler();
+        TinyMachine replayed = new TinyMachine(replayedHandler, STATE_A);
+        EventJournal replayJournal = new EventJournal(mFile, new IntegerCodec());
+        assertEquals(6, replayJournal.replay(replayed, 0));
+        replayJournal.close();
+
+        assertEquals(handler.events, replayedHandler.events);
+        assertEquals(tinyMachine.getCurrentState(), replayed.getCurrentState());
+    }
+
+    public void testDroppedEventNotJournaled() throws Exception {
+        FailingHandler handler = new FailingHandler(true);
+        EventJournal journal = new EventJournal(mFile, new IntegerCodec());
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A)
+                .setQueueLimit(1, TinyMachine.OverflowPolicy.DropNewest)
+                .setJournal(journal);
+        try {
+            tinyMachine.fireEvent(0);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        tinyMachine.fireEvent(7); // dropped, the queue is full with the event fired by handler
+        assertEquals(1, tinyMachine.getDroppedEventsCount());
+        journal.close();
+
+        FailingHandler replayedHandler = new FailingHandler(false);
+        TinyMachine replayed = new TinyMachine(replayedHandler, STATE_A);
+        EventJournal replayJournal = new EventJournal(mFile, new IntegerCodec());
+        assertEquals(1, replayJournal.replay(replayed, 0));
+        replayJournal.close();
+
+        assertEquals(Arrays.<Object>asList(0, 10), handler.events);
+        assertEquals(handler.events, replayedHandler.events);
+    }
+
+    public void testReplayFromSnapshotOffset() throws Exception {
+        EventJournal journal = new EventJournal(mFile, new IntegerCodec());
+        TinyMachine tinyMachine = new TinyMachine(new Handler(), STATE_A).setJournal(journal);
+        tinyMachine.fireEvent(3);
+
+        ByteBuffer snapshot = ByteBuffer.allocate(64);
+        tinyMachine.writeSnapshot(snapshot, new IntegerCodec());
+        snapshot.flip();
+        long offset = journal.getOffset();
+
+        tinyMachine.fireEvent(7);
+        journal.close();
+
+        Handler replayedHandler = new Handler();
+        TinyMachine replayed = new TinyMachine(replayedHandler, STATE_A);
+        replayed.restoreSnapshot(snapshot, new IntegerCodec());
+        EventJournal replayJournal = new EventJournal(mFile, new IntegerCodec());
+        assertEquals(1, replayJournal.replay(replayed, offset));
+        replayJournal.close();
+
+        assertEquals(Arrays.<Object>asList("B7"), replayedHandler.events);
+    }
+
+    public void testIncompleteRecordTruncated() throws Exception {
+        EventJournal journal = new EventJournal(mFile, new IntegerCodec());
+        TinyMachine tinyMachine = new TinyMachine(new Handler(), STATE_A).setJournal(journal);
+        tinyMachine.fireEvent(1);
+        journal.close();
+        final long length = mFile.length();
+
+        // crash while writing the next record
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(length);
+        file.write(new byte[] {0, 0, 0, 9, 0, 0});
+        file.close();
+
+        Handler replayedHandler = new Handler();
+        EventJournal replayJournal = new EventJournal(mFile, new IntegerCodec());
+        assertEquals(1, replayJournal.replay(new TinyMachine(replayedHandler, STATE_A), 0));
+        assertEquals(length, mFile.length());
+
+        // appending continues after the last complete record
+        TinyMachine next = new TinyMachine(new Handler(), STATE_A).setJournal(replayJournal);
+        next.fireEvent(2);
+        replayJournal.close();
+        assertEquals(length * 2, mFile.length());
+    }
+
+    public void testConcurrentMachine() throws Exception {
+        Handler handler = new Handler();
+        EventJournal journal = new EventJournal(mFile, new IntegerCodec())
+                .setSyncInterval(0, TimeUnit.MILLISECONDS);
+        TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, STATE_A).setJournal(journal);
+        tinyMachine.fireEvent(3);
+        tinyMachine.fireEvent(4);
+        journal.close();
+
+        Handler replayedHandler = new Handler();
+        EventJournal replayJournal = new EventJournal(mFile, new IntegerCodec());
+        assertEquals(2, replayJournal.replay(new TinyMachine(replayedHandler, STATE_A), 0));
+        replayJournal.close();
+
+        assertEquals(Arrays.<Object>asList(3, 30, "B4"), replayedHandler.events);
+        assertEquals(handler.events, replayedHandler.events);
+    }
+
+    public void testEventFiredByListenerJournaled() throws Exception {
+        Handler handler = new Handler();
+        EventJournal journal = new EventJournal(mFile, new IntegerCodec())
+                .setSyncInterval(0, TimeUnit.MILLISECONDS);
+        TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, STATE_A).setJournal(journal);
+        tinyMachine.addStateListener(new TinyMachine.StateListener() {
+            @Override
+            public void onStateChanged(TinyMachine tm, int fromState, int toState) {
+                if (toState == STATE_B) {
+                    tm.fireEvent(5); // given from outside, after the queue was drained
+                }
+            }
+        }, true);
+        tinyMachine.fireEvent(3);
+        journal.close();
+        assertEquals(Arrays.<Object>asList(3, 30, "B5"), handler.events);
+
+        Handler replayedHandler = new Handler();
+        EventJournal replayJournal = new EventJournal(mFile, new IntegerCodec());
+        assertEquals(2, replayJournal.replay(new TinyMachine(replayedHandler, STATE_A), 0));
+        replayJournal.close();
+
+        assertEquals(handler.events, replayedHandler.events);
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+public class IntMapTest extends TestCase {
+
+    public void testSortedKeys() {
+        IntMap<String> map = new IntMap<>();
+        int[] keys = {5, -3, 17, 0, StateHandler.STATE_ANY, 9, 2};
+        for (int key : keys) {
+            map.put(key, "v" + key);
+        }
+        assertEquals(keys.length, map.size());
+
+        int previous = Integer.MIN_VALUE;
+        for (int i = 0; i < map.size(); i++) {
+            assertTrue(map.keyAt(i) >= previous);
+            previous = map.keyAt(i);
+            assertEquals("v" + previous, map.valueAt(i));
+        }
+        assertEquals(StateHandler.STATE_ANY, map.keyAt(0));
+    }
+
+    public void testGetAndReplace() {
+        IntMap<String> map = new IntMap<>();
+        map.put(1, "a");
+        map.put(1, "b");
+
+        assertEquals(1, map.size());
+        assertEquals("b", map.get(1));
+        assertNull(map.get(2));
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.Executor;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+
+public class MachineDefinitionTest extends TestCase {
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_ACTIVE = 1;
+
+    public static class Counter {
+        int entries;
+        int events;
+    }
+
+    public static class CounterHandler {
+
+        @StateHandler(state = STATE_IDLE)
+        public void onIdleEvent(String event, TinyMachine tm) {
+            ((Counter) tm.getContext()).events++;
+            tm.transitionTo(STATE_ACTIVE);
+        }
+
+        @StateHandler(state = STATE_ACTIVE, type = Type.OnEntry)
+        public void onActiveEntry(TinyMachine tm) {
+            ((Counter) tm.getContext()).entries++;
+        }
+
+        @StateHandler(state = STATE_ACTIVE)
+        public void onActiveEvent(String event, TinyMachine tm) {
+            ((Counter) tm.getContext()).events++;
+        }
+    }
+
+    private static final MachineDefinition DEFINITION
+            = new MachineDefinition(new CounterHandler());
+
+    public void testMachinesShareHandler() {
+        Counter first = new Counter();
+        Counter second = new Counter();
+        TinyMachine firstMachine = new TinyMachine(DEFINITION, STATE_IDLE, first);
+        TinyMachine secondMachine = new TinyMachine(DEFINITION, STATE_IDLE, second);
+
+        firstMachine.fireEvent("a");
+        firstMachine.fireEvent("b");
+
+        assertSame(first, firstMachine.getContext());
+        assertEquals(STATE_ACTIVE, firstMachine.getCurrentState());
+        assertEquals(STATE_IDLE, secondMachine.getCurrentState());
+        assertEquals(2, first.events);
+        assertEquals(1, first.entries);
+        assertEquals(0, second.events);
+
+        secondMachine.fireEvent("c");
+        assertEquals(STATE_ACTIVE, secondMachine.getCurrentState());
+        assertEquals(1, second.events);
+        assertEquals(1, second.entries);
+    }
+
+    public void testConcurrentMachineWithDefinition() {
+        Counter counter = new Counter();
+        TinyMachine tinyMachine = new ConcurrentTinyMachine(DEFINITION, STATE_IDLE, counter);
+        tinyMachine.fireEvent("a");
+        assertEquals(STATE_ACTIVE, tinyMachine.getCurrentState());
+        assertEquals(1, counter.entries);
+        assertNull(new TinyMachine(new CounterHandler(), STATE_IDLE).getContext());
+    }
+
+    public void testAsyncMachineWithDefinition() {
+        Counter counter = new Counter();
+        TinyMachine tinyMachine = new AsyncTinyMachine(DEFINITION, STATE_IDLE, counter,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        tinyMachine.fireEvent("a");
+        tinyMachine.fireEvent("b");
+        assertSame(counter, tinyMachine.getContext());
+        assertEquals(STATE_ACTIVE, tinyMachine.getCurrentState());
+        assertEquals(2, counter.events);
+        assertEquals(1, counter.entries);
+    }
+
+    public void testNullArguments() {
+        try {
+            new MachineDefinition(null);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new TinyMachine((MachineDefinition) null, STATE_IDLE, null);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testFootprint() throws Exception {
+        if (!Allocations.isSupported()) {
+            return;
+        }
+        final int count = 10000;
+        final TinyMachine[] machines = new TinyMachine[count];
+        final Counter counter = new Counter();
+        final long allocated = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                create(machines, counter);
+            }
+        });
+        // machine processing an event without nested tasks allocates neither task queue
+        // nor extras, so that it takes a few dozen bytes only
+        final long bytesPerMachine = allocated / count;
+        assertTrue("bytes per machine: " + bytesPerMachine, bytesPerMachine <= 48);
+    }
+
+    private static void create(TinyMachine[] machines, Counter counter) {
+        for (int i = 0; i < machines.length; i++) {
+            machines[i] = new TinyMachine(DEFINITION, STATE_ACTIVE, counter);
+            machines[i].fireEvent("event");
+        }
+    }
+
+}
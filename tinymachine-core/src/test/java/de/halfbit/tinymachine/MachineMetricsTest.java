@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+
+public class MachineMetricsTest extends TestCase {
+
+    private static final int STATE_A = 0;
+    private static final int STATE_B = 1;
+
+    private static class Handler {
+
+        @StateHandler(state = STATE_A)
+        public void onEvent(String event, TinyMachine tm) {
+            if ("go".equals(event)) {
+                tm.transitionTo(STATE_B);
+            } else if ("storm".equals(event)) {
+                for (int i = 0; i < 5; i++) {
+                    tm.fireEvent(i);
+                }
+            }
+        }
+
+        @StateHandler(state = StateHandler.STATE_ANY)
+        public void onEvent(Integer event) {
+        }
+
+        @StateHandler(state = STATE_B, type = Type.OnEntry)
+        public void onEntryB() {
+        }
+    }
+
+    private static class RecordingExporter implements MachineMetrics.Exporter {
+
+        public final Map<Integer, long[]> states = new HashMap<>();
+        public final Map<String, Long> handlers = new HashMap<>();
+
+        @Override
+        public void onState(int state, long entriesCount, long unhandledCount,
+                            Histogram dwellTime) {
+            states.put(state, new long[] {entriesCount, unhandledCount, dwellTime.getCount()});
+        }
+
+        @Override
+        public void onHandler(int state, Class<?> eventType, Histogram latency) {
+            handlers.put(state + " " + eventType.getSimpleName(), latency.getCount());
+        }
+    }
+
+    public void testRecordedMetrics() throws Exception {
+        MachineMetrics metrics = new MachineMetrics();
+        TinyMachine tinyMachine = new TinyMachine(new Handler(), STATE_A).setMetrics(metrics);
+
+        tinyMachine.fireEvent("storm");
+        tinyMachine.fireEvent("go");
+        tinyMachine.fireEvent("ignored");
+        tinyMachine.fireEvent("ignored");
+
+        RecordingExporter exporter = new RecordingExporter();
+        metrics.export(exporter);
+
+        // state A: left once, state B: entered once and got two unhandled events
+        assertEquals(0, exporter.states.get(STATE_A)[0]);
+        assertEquals(1, exporter.states.get(STATE_A)[2]);
+        assertEquals(1, exporter.states.get(STATE_B)[0]);
+        assertEquals(2, exporter.states.get(STATE_B)[1]);
+        assertEquals(0, exporter.states.get(STATE_B)[2]);
+        assertEquals(2, metrics.getUnhandledCount());
+
+        assertEquals(Long.valueOf(2), exporter.handlers.get(STATE_A + " String"));
+        assertEquals(Long.valueOf(5),
+                exporter.handlers.get(StateHandler.STATE_ANY + " Integer"));
+
+        assertEquals(5, metrics.getMaxQueueDepth());
+        assertEquals(0, metrics.getQueueDepth());
+    }
+
+    public void testHistogramBuckets() throws Exception {
+        Histogram histogram = new Histogram();
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(3);
+        histogram.record(1000);
+        histogram.record(Long.MAX_VALUE);
+
+        long[] counts = histogram.getCounts();
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(1, counts[2]);
+        assertEquals(1, counts[10]);
+        assertEquals(1, counts[Histogram.BUCKETS_COUNT - 1]);
+        assertEquals(5, histogram.getCount());
+        assertTrue(1000 < Histogram.getUpperBoundNanos(10));
+        assertTrue(1000 >= Histogram.getUpperBoundNanos(9));
+    }
+
+    public void testStripedCounter() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.increment();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, counter.sum());
+    }
+
+}
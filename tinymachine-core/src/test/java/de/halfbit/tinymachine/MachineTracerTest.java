@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+
+public class MachineTracerTest extends TestCase {
+
+    private static final int STATE_A = 0;
+    private static final int STATE_B = 1;
+
+    private static class Handler {
+
+        @StateHandler(state = STATE_A)
+        public void onEvent(String event, TinyMachine tm) {
+            tm.transitionTo(STATE_B);
+        }
+
+        @StateHandler(state = StateHandler.STATE_ANY)
+        public void onEvent(Long event) {
+        }
+
+        @StateHandler(state = STATE_B, type = Type.OnEntry)
+        public void onEntryB() {
+        }
+    }
+
+    private static class RecordingTracer implements MachineTracer {
+
+        public final List<String> traces = new ArrayList<>();
+
+        @Override
+        public void onEvent(TinyMachine tm, int state, Object event) {
+            traces.add("event " + state + " " + event);
+        }
+
+        @Override
+        public void onUnhandled(TinyMachine tm, int state, Object event) {
+            traces.add("unhandled " + state + " " + event);
+        }
+
+        @Override
+        public void onEventCode(TinyMachine tm, int state, int code, long payload,
+                                boolean handled) {
+            traces.add((handled ? "code " : "unhandled code ") + state + " " + code);
+        }
+
+        @Override
+        public void onTransition(TinyMachine tm, int fromState, int toState) {
+            traces.add("transition " + fromState + " " + toState);
+        }
+    }
+
+    public void testTraces() throws Exception {
+        RecordingTracer tracer = new RecordingTracer();
+        TinyMachine tinyMachine = new TinyMachine(new Handler(), STATE_A).setTracer(tracer);
+
+        tinyMachine.fireEvent(1L);
+        tinyMachine.fireEvent("go");
+        tinyMachine.fireEvent("again");
+        tinyMachine.fireEvent(2L);
+
+        assertEquals(Arrays.asList(
+                "event 0 1",
+                "event 0 go",
+                "transition 0 1",
+                "unhandled 1 again",
+                "event 1 2"
+        ), tracer.traces);
+    }
+
+    public void testTraceTagUsesLogger() throws Exception {
+        final List<String> lines = new ArrayList<>();
+        TinyMachine.setLogger(new Logger() {
+            @Override
+            public void log(String tag, String message) {
+                lines.add(tag + message);
+            }
+        });
+        try {
+            TinyMachine tinyMachine = new TinyMachine(new Handler(), STATE_A).setTraceTag("T");
+            tinyMachine.fireEvent("go");
+
+            assertEquals(Arrays.asList(
+                    "T  [0] current state",
+                    "T  [0] OnEvent, event=go",
+                    "T  [1] new state, old state=0"
+            ), lines);
+        } finally {
+            TinyMachine.setLogger(null);
+        }
+    }
+
+    public void testBrokenLoggerRegistrationIsIgnored() throws Exception {
+        File services = File.createTempFile("tinymachine", "");
+        assertTrue(services.delete());
+        File registration = new File(services, "META-INF/services/" + Logger.class.getName());
+        assertTrue(registration.getParentFile().mkdirs());
+        Writer writer = new OutputStreamWriter(new FileOutputStream(registration), "UTF-8");
+        try {
+            writer.write("de.halfbit.tinymachine.MissingLogger\n");
+        } finally {
+            writer.close();
+        }
+
+        try {
+            // load machine in isolation, so that it sees the broken registration
+            URL classes = TinyMachine.class.getProtectionDomain().getCodeSource().getLocation();
+            ClassLoader loader = new URLClassLoader(
+                    new URL[] {services.toURI().toURL(), classes}, null);
+            Method getLogger = loader.loadClass(TinyMachine.class.getName())
+                    .getDeclaredMethod("getLogger");
+            getLogger.setAccessible(true);
+
+            Object logger = getLogger.invoke(null);
+            loader.loadClass(Logger.class.getName())
+                    .getMethod("log", String.class, String.class)
+                    .invoke(logger, "T", "message");
+        } finally {
+            assertTrue(registration.delete());
+            assertTrue(registration.getParentFile().delete());
+            assertTrue(registration.getParentFile().getParentFile().delete());
+            assertTrue(services.delete());
+        }
+    }
+
+}
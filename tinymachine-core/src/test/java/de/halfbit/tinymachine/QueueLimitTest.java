@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import de.halfbit.tinymachine.TinyMachine.OverflowListener;
+import de.halfbit.tinymachine.TinyMachine.OverflowPolicy;
+
+public class QueueLimitTest extends TestCase {
+
+    private static final int STATE_A = 0;
+
+    /** Fires five more events when it receives event 0. */
+    private static class StormHandler {
+
+        public final List<Integer> events = new ArrayList<>();
+
+        @StateHandler(state = STATE_A)
+        public void onEvent(Integer event, TinyMachine tm) {
+            events.add(event);
+            if (event == 0) {
+                for (int i = 1; i <= 5; i++) {
+                    tm.fireEvent(i);
+                }
+            }
+        }
+    }
+
+    /** Waits for the gate before handling event 0. */
+    private static class GatedHandler {
+
+        public final List<Integer> events = new ArrayList<>();
+        public final CountDownLatch gate = new CountDownLatch(1);
+        public final CountDownLatch entered = new CountDownLatch(1);
+
+        @StateHandler(state = STATE_A)
+        public void onEvent(Integer event) throws InterruptedException {
+            if (event == 0) {
+                entered.countDown();
+                gate.await();
+            }
+            synchronized (events) {
+                events.add(event);
+            }
+        }
+    }
+
+    public void testDropNewest() throws Exception {
+        StormHandler handler = new StormHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A)
+                .setQueueLimit(3, OverflowPolicy.DropNewest);
+
+        tinyMachine.fireEvent(0);
+
+        assertEquals(Arrays.asList(0, 1, 2, 3), handler.events);
+        assertEquals(2, tinyMachine.getDroppedEventsCount());
+        assertEquals(0, tinyMachine.getRejectedEventsCount());
+    }
+
+    public void testDropOldest() throws Exception {
+        StormHandler handler = new StormHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A)
+                .setQueueLimit(3, OverflowPolicy.DropOldest);
+
+        tinyMachine.fireEvent(0);
+
+        assertEquals(Arrays.asList(0, 3, 4, 5), handler.events);
+        assertEquals(2, tinyMachine.getDroppedEventsCount());
+    }
+
+    public void testReject() throws Exception {
+        StormHandler handler = new StormHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A)
+                .setQueueLimit(3, OverflowPolicy.Reject);
+
+        try {
+            tinyMachine.fireEvent(0);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(1, tinyMachine.getRejectedEventsCount());
+        assertEquals(0, tinyMachine.getDroppedEventsCount());
+    }
+
+    public void testOverflowListener() throws Exception {
+        final List<Object> overflown = new ArrayList<>();
+        StormHandler handler = new StormHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A)
+                .setQueueLimit(4, new OverflowListener() {
+                    @Override
+                    public void onOverflow(TinyMachine tm, Object event) {
+                        overflown.add(event);
+                    }
+                });
+
+        tinyMachine.fireEvent(0);
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), handler.events);
+        assertEquals(Arrays.<Object>asList(5), overflown);
+        assertEquals(1, tinyMachine.getDroppedEventsCount());
+    }
+
+    public void testBlockNotSupportedBySingleThreadedMachine() throws Exception {
+        try {
+            new TinyMachine(new StormHandler(), STATE_A)
+                    .setQueueLimit(3, OverflowPolicy.Block);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testConcurrentBlock() throws Exception {
+        final GatedHandler handler = new GatedHandler();
+        final TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, STATE_A)
+                .setQueueLimit(2, OverflowPolicy.Block);
+
+        Thread drainer = new Thread() {
+            @Override
+            public void run() {
+                tinyMachine.fireEvent(0);
+            }
+        };
+        drainer.start();
+        assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= 5; i++) {
+                    tinyMachine.fireEvent(i);
+                }
+            }
+        };
+        producer.start();
+
+        // producer gets blocked after filling the queue
+        long deadline = System.currentTimeMillis() + 5000;
+        while (producer.getState() != Thread.State.WAITING
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, producer.getState());
+
+        handler.gate.countDown();
+        producer.join(5000);
+        drainer.join(5000);
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), handler.events);
+        assertEquals(0, tinyMachine.getDroppedEventsCount());
+    }
+
+    public void testAsyncDropOldest() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            GatedHandler handler = new GatedHandler();
+            AsyncTinyMachine tinyMachine = new AsyncTinyMachine(handler, STATE_A, executor);
+            tinyMachine.setQueueLimit(2, OverflowPolicy.DropOldest);
+
+            tinyMachine.fireEventAsync(0);
+            assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+            Future<Void> first = tinyMachine.fireEventAsync(1);
+            tinyMachine.fireEventAsync(2);
+            Future<Void> last = tinyMachine.fireEventAsync(3);
+
+            handler.gate.countDown();
+            last.get(5, TimeUnit.SECONDS);
+
+            assertTrue(first.isCancelled());
+            assertEquals(Arrays.asList(0, 2, 3), handler.events);
+            assertEquals(1, tinyMachine.getDroppedEventsCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testAsyncDropNewest() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            GatedHandler handler = new GatedHandler();
+            AsyncTinyMachine tinyMachine = new AsyncTinyMachine(handler, STATE_A, executor);
+            tinyMachine.setQueueLimit(2, OverflowPolicy.DropNewest);
+
+            tinyMachine.fireEventAsync(0);
+            assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+            tinyMachine.fireEventAsync(1);
+            Future<Void> accepted = tinyMachine.fireEventAsync(2);
+            Future<Void> dropped = tinyMachine.fireEventAsync(3);
+
+            handler.gate.countDown();
+            accepted.get(5, TimeUnit.SECONDS);
+
+            assertTrue(dropped.isCancelled());
+            assertEquals(Arrays.asList(0, 1, 2), handler.events);
+            assertEquals(1, tinyMachine.getDroppedEventsCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+
+public class SnapshotTest extends TestCase {
+
+    private static final int STATE_A = 0;
+    private static final int STATE_B = 1;
+
+    /** Encodes integers and strings with a one byte type tag. */
+    private static class SimpleCodec implements EventCodec {
+
+        @Override
+        public void encode(Object event, ByteBuffer buffer) {
+            if (event instanceof Integer) {
+                buffer.put((byte) 'I').putInt((Integer) event);
+            } else {
+                final byte[] bytes = ((String) event).getBytes();
+                buffer.put((byte) 'S').putInt(bytes.length).put(bytes);
+            }
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer) {
+            if (buffer.get() == 'I') {
+                return buffer.getInt();
+            }
+            final byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            return new String(bytes);
+        }
+    }
+
+    private static class Handler {
+
+        public final List<Object> events = new ArrayList<>();
+        public ByteBuffer snapshot;
+
+        @StateHandler(state = StateHandler.STATE_ANY)
+        public void onEvent(Integer event) {
+            events.add(event);
+        }
+
+        @StateHandler(state = STATE_A)
+        public void onEvent(String event, TinyMachine tm) {
+            events.add(event);
+            if ("snapshot".equals(event)) {
+                tm.fireEvent(1);
+                tm.transitionTo(STATE_B);
+                tm.fireEvent(2);
+                snapshot = ByteBuffer.allocate(256);
+                tm.writeSnapshot(snapshot, new SimpleCodec());
+                snapshot.flip();
+            }
+        }
+
+        @StateHandler(state = STATE_B, type = Type.OnEntry)
+        public void onEntryB() {
+            events.add("entry B");
+        }
+    }
+
+    private static class TimeoutHandler {
+
+        public final List<Object> events = new ArrayList<>();
+        public TimingWheel timingWheel;
+        public ByteBuffer snapshot;
+
+        @StateHandler(state = StateHandler.STATE_ANY)
+        public void onEvent(Integer event) {
+            events.add(event);
+        }
+
+        @StateHandler(state = STATE_B)
+        public void onEvent(String event, TinyMachine tm) throws InterruptedException {
+            events.add(event);
+            if ("snapshot".equals(event)) {
+                // state timeout expires and is pending, when snapshot is written
+                Thread.sleep(5);
+                timingWheel.advance();
+                tm.fireEvent(1);
+                snapshot = ByteBuffer.allocate(256);
+                tm.writeSnapshot(snapshot, new SimpleCodec());
+                snapshot.flip();
+            }
+        }
+    }
+
+    public void testIdleMachine() throws Exception {
+        TinyMachine tinyMachine = new TinyMachine(new Handler(), STATE_A);
+        tinyMachine.transitionTo(STATE_B);
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        tinyMachine.writeSnapshot(buffer, new SimpleCodec());
+        assertEquals(13, buffer.position());
+        buffer.flip();
+
+        TinyMachine restored = new TinyMachine(new Handler(), STATE_A);
+        restored.restoreSnapshot(buffer, new SimpleCodec());
+        assertEquals(STATE_B, restored.getCurrentState());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    public void testPendingTasksRestored() throws Exception {
+        Handler handler = new Handler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A);
+        tinyMachine.fireEvent("snapshot");
+        assertEquals(Arrays.<Object>asList("snapshot", 1, "entry B", 2), handler.events);
+
+        Handler restoredHandler = new Handler();
+        TinyMachine restored = new TinyMachine(restoredHandler, STATE_A);
+        restored.restoreSnapshot(handler.snapshot, new SimpleCodec());
+
+        assertEquals(Arrays.<Object>asList(1, "entry B", 2), restoredHandler.events);
+        assertEquals(STATE_B, restored.getCurrentState());
+    }
+
+    public void testConcurrentMachine() throws Exception {
+        Handler handler = new Handler();
+        TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, STATE_A);
+        tinyMachine.fireEvent("snapshot");
+
+        Handler restoredHandler = new Handler();
+        TinyMachine restored = new ConcurrentTinyMachine(restoredHandler, STATE_A);
+        restored.restoreSnapshot(handler.snapshot, new SimpleCodec());
+
+        assertEquals(Arrays.<Object>asList(1, "entry B", 2), restoredHandler.events);
+        assertEquals(STATE_B, restored.getCurrentState());
+    }
+
+    public void testBulkSnapshot() throws Exception {
+        final int count = 1000;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(count * 13);
+        for (int i = 0; i < count; i++) {
+            new TinyMachine(new Handler(), i).writeSnapshot(buffer, new SimpleCodec());
+        }
+        buffer.flip();
+        for (int i = 0; i < count; i++) {
+            TinyMachine restored = new TinyMachine(new Handler(), STATE_A);
+            restored.restoreSnapshot(buffer, new SimpleCodec());
+            assertEquals(i, restored.getCurrentState());
+        }
+    }
+
+    public void testUnsupportedVersion() throws Exception {
+        try {
+            new TinyMachine(new Handler(), STATE_A)
+                    .restoreSnapshot(ByteBuffer.wrap(new byte[13]), new SimpleCodec());
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testCorruptedSnapshotDoesNotChangeMachine() throws Exception {
+        Handler handler = new Handler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A);
+        tinyMachine.fireEvent("snapshot");
+
+        // corrupt code of the second task following header and the first task
+        ByteBuffer snapshot = handler.snapshot;
+        snapshot.put(13 + 1 + 4 + 5, (byte) 42);
+
+        Handler restoredHandler = new Handler();
+        TinyMachine restored = new TinyMachine(restoredHandler, STATE_B);
+        try {
+            restored.restoreSnapshot(snapshot, new SimpleCodec());
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(STATE_B, restored.getCurrentState());
+        assertTrue(restoredHandler.events.isEmpty());
+        assertEquals(0, snapshot.position());
+    }
+
+    public void testTruncatedSnapshotDoesNotChangeMachine() throws Exception {
+        Handler handler = new Handler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A);
+        tinyMachine.fireEvent("snapshot");
+
+        // cut the last task off
+        ByteBuffer snapshot = handler.snapshot;
+        snapshot.limit(snapshot.limit() - 1);
+
+        Handler restoredHandler = new Handler();
+        TinyMachine restored = new TinyMachine(restoredHandler, STATE_B);
+        try {
+            restored.restoreSnapshot(snapshot, new SimpleCodec());
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(STATE_B, restored.getCurrentState());
+        assertTrue(restoredHandler.events.isEmpty());
+        assertEquals(0, snapshot.position());
+    }
+
+    public void testBusyMachineIsNotRestored() throws Exception {
+        TinyMachine source = new TinyMachine(new Handler(), STATE_A);
+        source.transitionTo(STATE_B);
+        final ByteBuffer snapshot = ByteBuffer.allocate(64);
+        source.writeSnapshot(snapshot, new SimpleCodec());
+        snapshot.flip();
+
+        final List<Exception> errors = new ArrayList<>();
+        TinyMachine tinyMachine = new TinyMachine(new Object() {
+            @StateHandler(state = STATE_A)
+            public void onEvent(String event, TinyMachine tm) {
+                try {
+                    tm.restoreSnapshot(snapshot, new SimpleCodec());
+                } catch (IllegalStateException e) {
+                    errors.add(e);
+                }
+            }
+        }, STATE_A);
+        tinyMachine.fireEvent("restore");
+
+        assertEquals(1, errors.size());
+        assertEquals(STATE_A, tinyMachine.getCurrentState());
+        assertEquals(0, snapshot.position());
+    }
+
+    public void testPendingStateTimeoutDroppedWithTimingWheel() throws Exception {
+        ByteBuffer snapshot = writeSnapshotWithPendingTimeout();
+
+        TimingWheel timingWheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 4);
+        TimeoutHandler handler = new TimeoutHandler();
+        TinyMachine restored = new TinyMachine(handler, STATE_A)
+                .setTimingWheel(timingWheel)
+                .setStateTimeout(STATE_B, 1, TimeUnit.MINUTES, "timeout");
+        restored.restoreSnapshot(snapshot, new SimpleCodec());
+
+        // state timeout starts over instead
+        assertEquals(Arrays.<Object>asList(1), handler.events);
+        assertEquals(STATE_B, restored.getCurrentState());
+        assertEquals(1, timingWheel.getPendingCount());
+    }
+
+    public void testPendingStateTimeoutDroppedWithoutTimingWheel() throws Exception {
+        ByteBuffer snapshot = writeSnapshotWithPendingTimeout();
+
+        TimeoutHandler handler = new TimeoutHandler();
+        TinyMachine restored = new TinyMachine(handler, STATE_A);
+        restored.restoreSnapshot(snapshot, new SimpleCodec());
+
+        assertEquals(Arrays.<Object>asList(1), handler.events);
+        assertEquals(STATE_B, restored.getCurrentState());
+    }
+
+    private static ByteBuffer writeSnapshotWithPendingTimeout() {
+        TimingWheel timingWheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 4);
+        TimeoutHandler handler = new TimeoutHandler();
+        handler.timingWheel = timingWheel;
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A)
+                .setTimingWheel(timingWheel)
+                .setStateTimeout(STATE_B, 1, TimeUnit.MILLISECONDS, "timeout");
+        tinyMachine.transitionTo(STATE_B);
+        tinyMachine.fireEvent("snapshot");
+        assertEquals(Arrays.<Object>asList("snapshot", "timeout", 1), handler.events);
+        return handler.snapshot;
+    }
+
+}
@@ -15,11 +15,15 @@
  */
 package de.halfbit.tinymachine;
 
-import android.test.AndroidTestCase;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 
 import de.halfbit.tinymachine.StateHandler.Type;
 
-public class StacklessProcessingTest extends AndroidTestCase {
+public class StacklessProcessingTest extends TestCase {
 
     private static final int STATE_UNDEFINED = -1;
     private static final int STATE_INITIAL = 0;
@@ -121,4 +125,71 @@ public class StacklessProcessingTest extends AndroidTestCase {
 
     }
 
+    public void testBatchMatchesSequentialEvents() {
+        mTinyMachine.transitionTo(STATE_INITIAL);
+        mTinyMachine.fireEvent("event1");
+        mTinyMachine.fireEvent("event2");
+        mTinyMachine.fireEvent("event3");
+
+        TinyHandler batchHandler = new TinyHandler();
+        TinyMachine batchMachine = new TinyMachine(batchHandler, STATE_UNDEFINED);
+        batchMachine.transitionTo(STATE_INITIAL);
+        batchMachine.fireEvents(new Object[] {"event1", "event2", "event3"});
+
+        assertEquals(mTinyHandler.getEventsCount(), batchHandler.getEventsCount());
+        final ArrayList<Object> expected = new ArrayList<>();
+        mTinyHandler.iterate(new Callbacks.EventIterator() {
+            @Override
+            public void onEvent(Object event) {
+                expected.add(event);
+            }
+        });
+        batchHandler.assertEqualEvents(expected.toArray());
+    }
+
+    public void testBatchIsIteratedOnce() {
+        final Callbacks handler = new Callbacks() {
+            @StateHandler(state = STATE_INITIAL)
+            public void onEvent(String event) {
+                onCallback(event);
+            }
+        };
+        new TinyMachine(handler, STATE_INITIAL)
+                .fireEvents(new OneShotIterable("event1", "event2"));
+        new ConcurrentTinyMachine(handler, STATE_INITIAL)
+                .setQueueLimit(4, TinyMachine.OverflowPolicy.Reject)
+                .fireEvents(new OneShotIterable("event3", "event4"));
+        handler.assertEqualEvents("event1", "event2", "event3", "event4");
+    }
+
+    public void testBatchWithNullEvent() {
+        mTinyMachine.transitionTo(STATE_FINAL);
+        mTinyHandler.clearEvents();
+        try {
+            mTinyMachine.fireEvents(Arrays.asList("event1", null));
+            fail("IllegalArgumentException is expected");
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+        mTinyHandler.assertNoEvents();
+    }
+
+    /** Iterable, which cannot be iterated twice. */
+    private static class OneShotIterable implements Iterable<Object> {
+
+        private Object[] mEvents;
+
+        OneShotIterable(Object... events) {
+            mEvents = events;
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            assertNotNull("iterated twice", mEvents);
+            final Iterator<Object> iterator = Arrays.asList(mEvents).iterator();
+            mEvents = null;
+            return iterator;
+        }
+    }
+
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+import de.halfbit.tinymachine.StateHierarchy.Parent;
+
+public class StateHierarchyTest extends TestCase {
+
+    private static final int STATE_OFF = 0;
+    private static final int STATE_ON = 1;
+    private static final int STATE_PLAYING = 2;
+    private static final int STATE_PAUSED = 3;
+    private static final int STATE_BUFFERING = 4;
+    private static final int STATE_FAR = 1000;
+
+    @StateHierarchy({
+            @Parent(state = STATE_PLAYING, parent = STATE_ON),
+            @Parent(state = STATE_PAUSED, parent = STATE_ON),
+            @Parent(state = STATE_BUFFERING, parent = STATE_PLAYING)
+    })
+    public static class PlayerHandler extends Callbacks {
+
+        //-- STATE_OFF
+
+        @StateHandler(state = STATE_OFF, type = Type.OnEntry)
+        public void onOffEntry() {
+            onCallback(new OnEntry(STATE_OFF));
+        }
+
+        @StateHandler(state = STATE_OFF, type = Type.OnExit)
+        public void onOffExit() {
+            onCallback(new OnExit(STATE_OFF));
+        }
+
+        //-- STATE_ON
+
+        @StateHandler(state = STATE_ON, type = Type.OnEntry)
+        public void onOnEntry() {
+            onCallback(new OnEntry(STATE_ON));
+        }
+
+        @StateHandler(state = STATE_ON)
+        public void onOnStringEvent(String event) {
+            onCallback("on:" + event);
+        }
+
+        @StateHandler(state = STATE_ON)
+        public void onOnIntegerEvent(Integer event) {
+            onCallback(event);
+        }
+
+        @StateHandler(state = STATE_ON, type = Type.OnExit)
+        public void onOnExit() {
+            onCallback(new OnExit(STATE_ON));
+        }
+
+        //-- STATE_PLAYING
+
+        @StateHandler(state = STATE_PLAYING, type = Type.OnEntry)
+        public void onPlayingEntry() {
+            onCallback(new OnEntry(STATE_PLAYING));
+        }
+
+        @StateHandler(state = STATE_PLAYING)
+        public void onPlayingStringEvent(String event) {
+            onCallback("playing:" + event);
+        }
+
+        @StateHandler(state = STATE_PLAYING, type = Type.OnExit)
+        public void onPlayingExit() {
+            onCallback(new OnExit(STATE_PLAYING));
+        }
+
+        //-- STATE_PAUSED
+
+        @StateHandler(state = STATE_PAUSED, type = Type.OnEntry)
+        public void onPausedEntry() {
+            onCallback(new OnEntry(STATE_PAUSED));
+        }
+
+        @StateHandler(state = STATE_PAUSED, type = Type.OnExit)
+        public void onPausedExit() {
+            onCallback(new OnExit(STATE_PAUSED));
+        }
+
+        //-- STATE_BUFFERING
+
+        @StateHandler(state = STATE_BUFFERING, type = Type.OnEntry)
+        public void onBufferingEntry() {
+            onCallback(new OnEntry(STATE_BUFFERING));
+        }
+
+        @StateHandler(state = STATE_BUFFERING, type = Type.OnExit)
+        public void onBufferingExit() {
+            onCallback(new OnExit(STATE_BUFFERING));
+        }
+    }
+
+    @StateHierarchy({
+            @Parent(state = STATE_FAR, parent = STATE_ON)
+    })
+    public static class SparseHandler extends Callbacks {
+
+        @StateHandler(state = STATE_ON)
+        public void onOnStringEvent(String event) {
+            onCallback("on:" + event);
+        }
+
+        @StateHandler(state = STATE_FAR, type = Type.OnEntry)
+        public void onFarEntry() {
+            onCallback(new OnEntry(STATE_FAR));
+        }
+    }
+
+    @StateHierarchy({
+            @Parent(state = STATE_ON, parent = STATE_PLAYING),
+            @Parent(state = STATE_PLAYING, parent = STATE_ON)
+    })
+    public static class CyclicHandler {
+
+        @StateHandler(state = STATE_ON)
+        public void onOnStringEvent(String event) {}
+    }
+
+    @StateHierarchy({
+            @Parent(state = STATE_PLAYING, parent = STATE_ON),
+            @Parent(state = STATE_PLAYING, parent = STATE_OFF)
+    })
+    public static class DuplicateParentHandler {
+
+        @StateHandler(state = STATE_ON)
+        public void onOnStringEvent(String event) {}
+    }
+
+    private PlayerHandler mHandler;
+    private TinyMachine mTinyMachine;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHandler = new PlayerHandler();
+        mTinyMachine = new TinyMachine(mHandler, STATE_OFF);
+    }
+
+    public void testEventHandledByParentState() {
+        mTinyMachine.transitionTo(STATE_PAUSED);
+        mHandler.clearEvents();
+
+        mTinyMachine.fireEvent("a");
+        mTinyMachine.fireEvent(5);
+        mTinyMachine.transitionTo(STATE_OFF);
+        mTinyMachine.fireEvent("b");
+
+        mHandler.assertEqualEvents(
+                "on:a",
+                5,
+                new OnExit(STATE_PAUSED),
+                new OnExit(STATE_ON),
+                new OnEntry(STATE_OFF));
+    }
+
+    public void testEventHandledByNearestState() {
+        mTinyMachine.transitionTo(STATE_BUFFERING);
+        mHandler.clearEvents();
+
+        mTinyMachine.fireEvent("a");
+        mTinyMachine.fireEvent(5);
+
+        mHandler.assertEqualEvents("playing:a", 5);
+    }
+
+    public void testEnterNestedState() {
+        mTinyMachine.transitionTo(STATE_BUFFERING);
+
+        mHandler.assertEqualEvents(
+                new OnExit(STATE_OFF),
+                new OnEntry(STATE_ON),
+                new OnEntry(STATE_PLAYING),
+                new OnEntry(STATE_BUFFERING));
+    }
+
+    public void testTransitionBetweenSiblings() {
+        mTinyMachine.transitionTo(STATE_BUFFERING);
+        mHandler.clearEvents();
+
+        mTinyMachine.transitionTo(STATE_PAUSED);
+
+        mHandler.assertEqualEvents(
+                new OnExit(STATE_BUFFERING),
+                new OnExit(STATE_PLAYING),
+                new OnEntry(STATE_PAUSED));
+    }
+
+    public void testLeaveNestedState() {
+        mTinyMachine.transitionTo(STATE_PAUSED);
+        mHandler.clearEvents();
+
+        mTinyMachine.transitionTo(STATE_OFF);
+
+        mHandler.assertEqualEvents(
+                new OnExit(STATE_PAUSED),
+                new OnExit(STATE_ON),
+                new OnEntry(STATE_OFF));
+    }
+
+    public void testTransitionToParentAndBack() {
+        mTinyMachine.transitionTo(STATE_BUFFERING);
+        mHandler.clearEvents();
+
+        mTinyMachine.transitionTo(STATE_ON);
+        mTinyMachine.transitionTo(STATE_BUFFERING);
+
+        mHandler.assertEqualEvents(
+                new OnExit(STATE_BUFFERING),
+                new OnExit(STATE_PLAYING),
+                new OnEntry(STATE_PLAYING),
+                new OnEntry(STATE_BUFFERING));
+    }
+
+    public void testIsInState() {
+        mTinyMachine.transitionTo(STATE_BUFFERING);
+
+        assertTrue(mTinyMachine.isInState(STATE_BUFFERING));
+        assertTrue(mTinyMachine.isInState(STATE_PLAYING));
+        assertTrue(mTinyMachine.isInState(STATE_ON));
+        assertFalse(mTinyMachine.isInState(STATE_PAUSED));
+        assertFalse(mTinyMachine.isInState(STATE_OFF));
+    }
+
+    public void testSparseHandlerTable() {
+        SparseHandler handler = new SparseHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_OFF);
+        assertFalse(HandlerTable.forClass(SparseHandler.class).isDense());
+
+        tinyMachine.transitionTo(STATE_FAR);
+        tinyMachine.fireEvent("a");
+
+        handler.assertEqualEvents(new OnEntry(STATE_FAR), "on:a");
+        assertTrue(tinyMachine.isInState(STATE_ON));
+    }
+
+    public void testCyclicHierarchy() {
+        try {
+            new TinyMachine(new CyclicHandler(), STATE_ON);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testDuplicateParent() {
+        try {
+            new TinyMachine(new DuplicateParentHandler(), STATE_ON);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
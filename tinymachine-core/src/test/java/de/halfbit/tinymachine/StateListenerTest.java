@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+import de.halfbit.tinymachine.TinyMachine.OverflowPolicy;
+import de.halfbit.tinymachine.TinyMachine.StateListener;
+
+public class StateListenerTest extends TestCase {
+
+    private static final int STATE_A = 0;
+    private static final int STATE_B = 1;
+    private static final int STATE_C = 2;
+
+    public static class ChainHandler extends Callbacks {
+
+        @StateHandler(state = STATE_A)
+        public void onEventA(String event, TinyMachine tm) {
+            if ("chain".equals(event)) {
+                tm.transitionTo(STATE_B);
+                tm.transitionTo(STATE_C);
+            } else if ("loop".equals(event)) {
+                tm.transitionTo(STATE_B);
+                tm.transitionTo(STATE_A);
+            }
+        }
+
+        @StateHandler(state = STATE_C, type = Type.OnEntry)
+        public void onEntryC(TinyMachine tm) {
+            onCallback(new OnEntry(tm.getCurrentState()));
+        }
+    }
+
+    private static class RecordingListener extends Callbacks implements StateListener {
+
+        @Override
+        public void onStateChanged(TinyMachine tm, int fromState, int toState) {
+            onCallback(fromState + ">" + toState);
+        }
+    }
+
+    private static class RecordingObserver extends Callbacks implements MachineObserver {
+
+        @Override
+        public void onTransition(TinyMachine tm, int fromState, int toState) {
+            onCallback(fromState + ">" + toState);
+        }
+
+        @Override
+        public void onDrained(TinyMachine tm) {
+            onCallback("drained");
+        }
+    }
+
+    public void testEveryTransitionIsReported() {
+        final ChainHandler handler = new ChainHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A);
+        RecordingListener listener = new RecordingListener();
+        tinyMachine.addStateListener(listener);
+
+        tinyMachine.fireEvent("chain");
+        listener.assertEqualEvents("0>1", "1>2");
+        handler.assertEqualEvents(new OnEntry(STATE_C));
+
+        listener.clearEvents();
+        tinyMachine.transitionTo(STATE_A);
+        tinyMachine.fireEvent("loop");
+        listener.assertEqualEvents("2>0", "0>1", "1>0");
+    }
+
+    public void testBatchedListenerReceivesNetChange() {
+        TinyMachine tinyMachine = new TinyMachine(new ChainHandler(), STATE_A);
+        RecordingListener listener = new RecordingListener();
+        tinyMachine.addStateListener(listener, true);
+
+        tinyMachine.fireEvent("chain");
+        listener.assertEqualEvents("0>2");
+
+        listener.clearEvents();
+        tinyMachine.transitionTo(STATE_A);
+        listener.assertEqualEvents("2>0");
+
+        listener.clearEvents();
+        tinyMachine.fireEvent("loop");
+        assertEquals(0, listener.getEventsCount());
+    }
+
+    public void testRemoveListener() {
+        TinyMachine tinyMachine = new TinyMachine(new ChainHandler(), STATE_A);
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        tinyMachine.addStateListener(first).addStateListener(second, true);
+
+        tinyMachine.removeStateListener(first);
+        tinyMachine.fireEvent("chain");
+        assertEquals(0, first.getEventsCount());
+        second.assertEqualEvents("0>2");
+
+        tinyMachine.removeStateListener(second);
+        tinyMachine.transitionTo(STATE_A);
+        second.assertEqualEvents("0>2");
+    }
+
+    public void testObserver() {
+        TinyMachine tinyMachine = new TinyMachine(new ChainHandler(), STATE_A);
+        RecordingObserver observer = new RecordingObserver();
+        tinyMachine.addObserver(observer);
+
+        tinyMachine.fireEvent("chain");
+        observer.assertEqualEvents("0>1", "1>2", "drained");
+
+        tinyMachine.removeObserver(observer);
+        tinyMachine.transitionTo(STATE_A);
+        observer.assertEqualEvents("0>1", "1>2", "drained");
+
+        try {
+            tinyMachine.addObserver(null);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testBatchedListenerOfConcurrentMachine() throws Exception {
+        final TinyMachine tinyMachine = new ConcurrentTinyMachine(new ChainHandler(), STATE_A);
+        final RecordingListener listener = new RecordingListener();
+        tinyMachine.addStateListener(listener, true);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread() {
+            @Override
+            public void run() {
+                tinyMachine.fireEvent("chain");
+                done.countDown();
+            }
+        }.start();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        listener.assertEqualEvents("0>2");
+    }
+
+    public void testBatchedListenerFiresIntoFullQueue() throws Exception {
+        final ChainHandler handler = new ChainHandler();
+        final TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, STATE_A)
+                .setQueueLimit(1, OverflowPolicy.Block);
+        final RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onStateChanged(TinyMachine tm, int fromState, int toState) {
+                super.onStateChanged(tm, fromState, toState);
+                // listener is called by the drainer, which must not block itself
+                tm.fireEvent("first");
+                tm.fireEvent("second");
+            }
+        };
+        tinyMachine.addStateListener(listener, true);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                tinyMachine.fireEvent("chain");
+                done.countDown();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        assertTrue("machine got blocked", done.await(5, TimeUnit.SECONDS));
+        listener.assertEqualEvents("0>2");
+    }
+
+}
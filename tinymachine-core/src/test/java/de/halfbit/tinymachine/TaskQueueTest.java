@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+public class TaskQueueTest extends TestCase {
+
+    public void testFifoOrder() {
+        TaskQueue queue = new TaskQueue(4);
+        assertTrue(queue.isEmpty());
+
+        queue.offer(TinyMachine.CODE_FIRE_EVENT, "event1", -1);
+        queue.offer(TinyMachine.CODE_TRANSITION, null, 5);
+        assertEquals(2, queue.size());
+
+        assertEquals(TinyMachine.CODE_FIRE_EVENT, queue.headCode());
+        assertEquals("event1", queue.headEvent());
+        queue.removeHead();
+
+        assertEquals(TinyMachine.CODE_TRANSITION, queue.headCode());
+        assertEquals(5, queue.headState());
+        assertNull(queue.headEvent());
+        queue.removeHead();
+
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testGrowWhenWrapped() {
+        TaskQueue queue = new TaskQueue(4);
+
+        // move head into the middle of the buffer
+        for (int i = 0; i < 3; i++) {
+            queue.offer(TinyMachine.CODE_FIRE_EVENT, i, -1);
+        }
+        queue.removeHead();
+        queue.removeHead();
+
+        // wrap around and grow
+        for (int i = 3; i < 20; i++) {
+            queue.offer(TinyMachine.CODE_FIRE_EVENT, i, -1);
+        }
+        assertEquals(18, queue.size());
+
+        for (int i = 2; i < 20; i++) {
+            assertEquals(i, queue.headEvent());
+            queue.removeHead();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testPrependAll() {
+        TaskQueue queue = new TaskQueue(4);
+        queue.offer(TinyMachine.CODE_FIRE_EVENT, 0, -1);
+        queue.removeHead(); // head is not at the beginning of the buffer
+        queue.offer(TinyMachine.CODE_FIRE_EVENT, 4, -1);
+        queue.offer(TinyMachine.CODE_TRANSITION, null, 5);
+
+        TaskQueue source = new TaskQueue(2);
+        for (int i = 1; i < 4; i++) {
+            source.offer(TinyMachine.CODE_FIRE_EVENT, i, -1);
+        }
+        queue.prependAll(source); // wraps around and grows
+        assertTrue(source.isEmpty());
+        assertEquals(5, queue.size());
+
+        for (int i = 1; i < 5; i++) {
+            assertEquals(i, queue.headEvent());
+            queue.removeHead();
+        }
+        assertEquals(TinyMachine.CODE_TRANSITION, queue.headCode());
+        assertEquals(5, queue.headState());
+
+        TaskQueue empty = new TaskQueue(1);
+        empty.prependAll(queue);
+        assertEquals(1, empty.size());
+        assertEquals(5, empty.headState());
+    }
+
+    public void testMachineWithSmallQueue() {
+        final Callbacks handler = new Callbacks() {
+            @StateHandler(state = 0)
+            public void onEvent(Integer event, TinyMachine tm) {
+                onCallback(event);
+                if (event == 0) {
+                    for (int i = 1; i < 10; i++) {
+                        tm.fireEvent(i);
+                    }
+                }
+            }
+        };
+        TinyMachine tinyMachine = new TinyMachine(handler, 0, 1);
+        tinyMachine.fireEvent(0);
+        handler.assertEqualEvents(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TimingWheelTest extends TestCase {
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_WAITING = 1;
+    private static final int STATE_RETRY = 2;
+
+    private static final String TIMEOUT = "timeout";
+
+    private static class Handler {
+
+        public final List<Object> events = new ArrayList<>();
+        public final CountDownLatch retry = new CountDownLatch(1);
+
+        @StateHandler(state = StateHandler.STATE_ANY)
+        public void onEvent(Integer event) {
+            events.add(event);
+        }
+
+        @StateHandler(state = STATE_WAITING)
+        public void onTimeout(String event, TinyMachine tm) {
+            events.add(event);
+            tm.transitionTo(STATE_RETRY);
+            retry.countDown();
+        }
+    }
+
+    private Handler mHandler;
+    private TimingWheel mTimingWheel;
+    private TinyMachine mTinyMachine;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHandler = new Handler();
+        mTimingWheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 4);
+        mTinyMachine = new TinyMachine(mHandler, STATE_IDLE)
+                .setTimingWheel(mTimingWheel)
+                .setStateTimeout(STATE_WAITING, 20, TimeUnit.MILLISECONDS, TIMEOUT);
+    }
+
+    public void testDelayedEvent() throws Exception {
+        mTinyMachine.fireEventDelayed(1, 30, TimeUnit.MILLISECONDS);
+        assertEquals(1, mTimingWheel.getPendingCount());
+
+        // delay spans several rounds of the wheel
+        Thread.sleep(10);
+        mTimingWheel.advance();
+        assertTrue(mHandler.events.isEmpty());
+
+        Thread.sleep(30);
+        mTimingWheel.advance();
+        assertEquals(Arrays.<Object>asList(1), mHandler.events);
+        assertEquals(0, mTimingWheel.getPendingCount());
+    }
+
+    public void testCancelledDelayedEvent() throws Exception {
+        TimingWheel.Timeout timeout = mTinyMachine.fireEventDelayed(1, 5, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertEquals(0, mTimingWheel.getPendingCount());
+
+        Thread.sleep(10);
+        mTimingWheel.advance();
+        assertTrue(mHandler.events.isEmpty());
+        assertTrue(timeout.isCancelled());
+    }
+
+    public void testStateTimeout() throws Exception {
+        mTinyMachine.transitionTo(STATE_WAITING);
+        assertEquals(1, mTimingWheel.getPendingCount());
+
+        Thread.sleep(30);
+        mTimingWheel.advance();
+
+        assertEquals(Arrays.<Object>asList(TIMEOUT), mHandler.events);
+        assertEquals(STATE_RETRY, mTinyMachine.getCurrentState());
+    }
+
+    public void testStateTimeoutCancelledOnTransition() throws Exception {
+        mTinyMachine.transitionTo(STATE_WAITING);
+        mTinyMachine.transitionTo(STATE_IDLE);
+        assertEquals(0, mTimingWheel.getPendingCount());
+
+        Thread.sleep(30);
+        mTimingWheel.advance();
+
+        assertTrue(mHandler.events.isEmpty());
+        assertEquals(STATE_IDLE, mTinyMachine.getCurrentState());
+    }
+
+    public void testStateTimeoutWithoutTimingWheel() throws Exception {
+        mTinyMachine.setTimingWheel(null);
+        mTinyMachine.transitionTo(STATE_WAITING);
+        assertEquals(STATE_WAITING, mTinyMachine.getCurrentState());
+        assertEquals(0, mTimingWheel.getPendingCount());
+
+        // timeouts get scheduled again with a timing wheel
+        mTinyMachine.setTimingWheel(mTimingWheel);
+        mTinyMachine.transitionTo(STATE_IDLE);
+        mTinyMachine.transitionTo(STATE_WAITING);
+        assertEquals(1, mTimingWheel.getPendingCount());
+    }
+
+    public void testStaleStateTimeoutIgnored() throws Exception {
+        mTinyMachine.transitionTo(STATE_WAITING);
+        mTinyMachine.transitionTo(STATE_IDLE);
+        mTinyMachine.transitionTo(STATE_WAITING);
+
+        // timeout of the first visit expired concurrently with the transition
+        mTinyMachine.onTimeout(TIMEOUT, true, 1);
+        assertTrue(mHandler.events.isEmpty());
+    }
+
+    public void testThrowingHandlerDoesNotStallWheel() throws Exception {
+        final List<Integer> events = new ArrayList<>();
+        TinyMachine tinyMachine = new TinyMachine(new Object() {
+            @StateHandler(state = StateHandler.STATE_ANY)
+            public void onEvent(Integer event) {
+                events.add(event);
+                if (event < 0) {
+                    throw new IllegalStateException("expected");
+                }
+            }
+        }, STATE_IDLE).setTimingWheel(mTimingWheel);
+
+        tinyMachine.fireEventDelayed(1, 0, TimeUnit.MILLISECONDS);
+        tinyMachine.fireEventDelayed(-1, 0, TimeUnit.MILLISECONDS);
+        tinyMachine.fireEventDelayed(2, 0, TimeUnit.MILLISECONDS);
+        tinyMachine.fireEventDelayed(3, 30, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(5);
+        try {
+            mTimingWheel.advance();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // the rest of expired timeouts is delivered once by the next advance
+        mTimingWheel.advance();
+        Collections.sort(events);
+        assertEquals(Arrays.asList(-1, 1, 2), events);
+        assertEquals(1, mTimingWheel.getPendingCount());
+
+        // timeout spanning several rounds still expires on its deadline
+        Thread.sleep(40);
+        mTimingWheel.advance();
+        assertEquals(Arrays.asList(-1, 1, 2, 3), events);
+        assertEquals(0, mTimingWheel.getPendingCount());
+    }
+
+    public void testTimingWheelThread() throws Exception {
+        Handler handler = new Handler();
+        TimingWheel timingWheel = new TimingWheel();
+        TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, STATE_IDLE)
+                .setTimingWheel(timingWheel)
+                .setStateTimeout(STATE_WAITING, 20, TimeUnit.MILLISECONDS, TIMEOUT);
+        timingWheel.start();
+        try {
+            tinyMachine.transitionTo(STATE_WAITING);
+            assertTrue(handler.retry.await(5, TimeUnit.SECONDS));
+        } finally {
+            timingWheel.stop();
+        }
+    }
+
+    public void testTimingWheelRequired() throws Exception {
+        try {
+            new TinyMachine(mHandler, STATE_IDLE).fireEventDelayed(1, 1, TimeUnit.SECONDS);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class TinyMachineGroupTest extends TestCase {
+
+    private static final int STRIPES = 4;
+    private static final int KEYS = 100;
+    private static final int EVENTS_PER_KEY = 100;
+
+    private final ConcurrentHashMap<String, DeviceHandler> mHandlers = new ConcurrentHashMap<>();
+    private TinyMachineGroup<String> mGroup;
+
+    private static class DeviceHandler {
+
+        public final Thread[] threads = new Thread[1];
+        public final ArrayList<Integer> events = new ArrayList<>();
+        public boolean differentThreads;
+
+        @StateHandler(state = 0)
+        public void onEvent(Integer event) {
+            final Thread thread = Thread.currentThread();
+            if (threads[0] == null) {
+                threads[0] = thread;
+            } else if (threads[0] != thread) {
+                differentThreads = true;
+            }
+            events.add(event);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mGroup = new TinyMachineGroup<>(STRIPES, new TinyMachineGroup.Factory<String>() {
+            @Override
+            public TinyMachine create(String key) {
+                DeviceHandler handler = new DeviceHandler();
+                assertNull(mHandlers.put(key, handler));
+                return new TinyMachine(handler, 0);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mGroup.shutdown();
+        mGroup = null;
+        super.tearDown();
+    }
+
+    public void testEventsDeliveredInOrder() throws Exception {
+        for (int i = 0; i < EVENTS_PER_KEY; i++) {
+            for (int key = 0; key < KEYS; key++) {
+                mGroup.fireEvent("device-" + key, i);
+            }
+        }
+        mGroup.shutdown();
+        assertTrue(mGroup.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(KEYS, mHandlers.size());
+        for (DeviceHandler handler : mHandlers.values()) {
+            assertFalse(handler.differentThreads);
+            assertEquals(EVENTS_PER_KEY, handler.events.size());
+            for (int i = 0; i < EVENTS_PER_KEY; i++) {
+                assertEquals(Integer.valueOf(i), handler.events.get(i));
+            }
+        }
+
+        long processed = 0;
+        int machines = 0;
+        for (int stripe = 0; stripe < mGroup.getStripesCount(); stripe++) {
+            processed += mGroup.getProcessedCount(stripe);
+            machines += mGroup.getMachinesCount(stripe);
+            assertEquals(0, mGroup.getQueueDepth(stripe));
+            assertTrue(mGroup.getMaxQueueDepth(stripe) > 0);
+        }
+        assertEquals(KEYS * EVENTS_PER_KEY, processed);
+        assertEquals(KEYS, machines);
+    }
+
+    public void testRemoveMachine() throws Exception {
+        mGroup.fireEvent("device", 1);
+        mGroup.transitionTo("device", 1);
+        mGroup.remove("device");
+        mGroup.shutdown();
+        assertTrue(mGroup.awaitTermination(5, TimeUnit.SECONDS));
+
+        int machines = 0;
+        for (int stripe = 0; stripe < mGroup.getStripesCount(); stripe++) {
+            machines += mGroup.getMachinesCount(stripe);
+        }
+        assertEquals(0, machines);
+        assertEquals(1, mHandlers.get("device").events.size());
+    }
+
+}
@@ -15,11 +15,11 @@
  */
 package de.halfbit.tinymachine;
 
-import android.test.AndroidTestCase;
+import junit.framework.TestCase;
 
 import de.halfbit.tinymachine.StateHandler.Type;
 
-public class TinyMachineTest extends AndroidTestCase {
+public class TinyMachineTest extends TestCase {
 
     private static final int STATE_INITIAL = 0;
     private static final int STATE_INTERMEDIATE = 1;
@@ -202,6 +202,63 @@ public class TinyMachineTest extends AndroidTestCase {
         }
     }
 
+    public void testHandlerTableShared() {
+        TinyHandler otherHandler = new TinyHandler();
+        TinyMachine otherMachine = new TinyMachine(otherHandler, STATE_FINAL);
+        assertSame(HandlerTable.forClass(TinyHandler.class),
+                HandlerTable.forClass(otherHandler.getClass()));
+
+        otherMachine.fireEvent("event1");
+        mTinyMachine.fireEvent("event2");
+        otherHandler.assertEqualEvents("event1");
+        mTinyHandler.assertEqualEvents("event2");
+    }
+
+    public void testDenseHandlerTable() {
+        assertTrue(HandlerTable.forClass(TinyHandler.class).isDense());
+    }
+
+    public void testSparseHandlerTable() {
+        final Callbacks handler = new Callbacks() {
+            @StateHandler(state = 0) public void onEvent0(String event) { onCallback(event); }
+            @StateHandler(state = 1000000) public void onEvent1(String event) { onCallback(event); }
+        };
+        assertFalse(HandlerTable.forClass(handler.getClass()).isDense());
+
+        TinyMachine tinyMachine = new TinyMachine(handler, 0);
+        tinyMachine.fireEvent("event1");
+        tinyMachine.transitionTo(500);
+        tinyMachine.fireEvent("event2");
+        tinyMachine.transitionTo(1000000);
+        tinyMachine.fireEvent("event3");
+        handler.assertEqualEvents("event1", "event3");
+    }
+
+    public void testHandlerExceptionNotWrapped() {
+        final UnsupportedOperationException exception = new UnsupportedOperationException();
+        TinyMachine tinyMachine = new TinyMachine(new Object() {
+            @StateHandler(state = 0) public void onEvent(String event) { throw exception; }
+        }, 0);
+        try {
+            tinyMachine.fireEvent("event");
+            fail("UnsupportedOperationException is expected");
+        } catch (UnsupportedOperationException e) {
+            assertSame(exception, e);
+        }
+    }
+
+    public void testWrongParametersCount() {
+        try {
+            new TinyMachine(new Object() {
+                @StateHandler(state = 0, type = Type.OnEntry)
+                public void onEntry(TinyMachine tm, String other) { }
+            }, 0);
+            fail("IllegalArgumentException is expected");
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+    }
+
     public void testNullEvent() {
         try {
             mTinyMachine.fireEvent(null);
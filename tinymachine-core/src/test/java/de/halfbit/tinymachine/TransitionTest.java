@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import junit.framework.TestCase;
+
+import de.halfbit.tinymachine.StateHandler.Type;
+import de.halfbit.tinymachine.StateHierarchy.Parent;
+
+public class TransitionTest extends TestCase {
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_STOPPED = 2;
+    private static final int STATE_PAUSED = 3;
+
+    public static class Start {}
+    public static class Stop {}
+    public static class Reset {}
+
+    @Transitions({
+            @Transition(from = STATE_IDLE, on = Start.class, to = STATE_RUNNING),
+            @Transition(from = STATE_RUNNING, on = Stop.class, to = STATE_STOPPED),
+            @Transition(from = StateHandler.STATE_ANY, on = Reset.class, to = STATE_IDLE)
+    })
+    @StateHierarchy({
+            @Parent(state = STATE_PAUSED, parent = STATE_RUNNING)
+    })
+    public static class EngineHandler extends Callbacks {
+
+        @StateHandler(state = STATE_IDLE, type = Type.OnExit)
+        public void onIdleExit() {
+            onCallback(new OnExit(STATE_IDLE));
+        }
+
+        @StateHandler(state = STATE_IDLE, type = Type.OnEntry)
+        public void onIdleEntry() {
+            onCallback(new OnEntry(STATE_IDLE));
+        }
+
+        @StateHandler(state = STATE_IDLE)
+        public void onIdleString(String event, TinyMachine tm) {
+            onCallback(event);
+            if ("start".equals(event)) {
+                tm.fireEvent(new Start());
+                tm.fireEvent("queued");
+            }
+        }
+
+        @StateHandler(state = STATE_RUNNING, type = Type.OnEntry)
+        public void onRunningEntry() {
+            onCallback(new OnEntry(STATE_RUNNING));
+        }
+
+        @StateHandler(state = STATE_RUNNING)
+        public void onRunningString(String event) {
+            onCallback("running:" + event);
+        }
+
+        @StateHandler(state = STATE_RUNNING)
+        public void onRunningReset(Reset event, TinyMachine tm) {
+            onCallback("reset in " + tm.getCurrentState());
+        }
+
+        @StateHandler(state = STATE_STOPPED, type = Type.OnEntry)
+        public void onStoppedEntry() {
+            onCallback(new OnEntry(STATE_STOPPED));
+        }
+    }
+
+    @Transition(from = STATE_IDLE, on = String.class, to = STATE_RUNNING)
+    public static class DuplicateHandler {
+
+        @StateHandler(state = STATE_IDLE)
+        public void onIdleString(String event) {}
+    }
+
+    private EngineHandler mHandler;
+    private TinyMachine mTinyMachine;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHandler = new EngineHandler();
+        mTinyMachine = new TinyMachine(mHandler, STATE_IDLE);
+    }
+
+    public void testDeclaredTransition() {
+        mTinyMachine.fireEvent(new Start());
+        mTinyMachine.fireEvent("a");
+        mTinyMachine.fireEvent(new Stop());
+
+        assertEquals(STATE_STOPPED, mTinyMachine.getCurrentState());
+        mHandler.assertEqualEvents(
+                new OnExit(STATE_IDLE),
+                new OnEntry(STATE_RUNNING),
+                "running:a",
+                new OnEntry(STATE_STOPPED));
+    }
+
+    public void testUnmatchedEventIgnored() {
+        mTinyMachine.fireEvent(new Stop());
+
+        assertEquals(STATE_IDLE, mTinyMachine.getCurrentState());
+        mHandler.assertEqualEvents();
+    }
+
+    public void testTransitionQueuedAfterPendingTasks() {
+        mTinyMachine.fireEvent("start");
+
+        mHandler.assertEqualEvents(
+                "start",
+                "queued",
+                new OnExit(STATE_IDLE),
+                new OnEntry(STATE_RUNNING));
+    }
+
+    public void testBatchOfEvents() {
+        mTinyMachine.fireEvents(new Object[] {new Start(), "a"});
+
+        mHandler.assertEqualEvents(
+                new OnExit(STATE_IDLE),
+                new OnEntry(STATE_RUNNING),
+                "running:a");
+    }
+
+    public void testAnyStateTransitionSeesOldState() {
+        mTinyMachine.fireEvent(new Start());
+        mHandler.clearEvents();
+
+        mTinyMachine.fireEvent(new Reset());
+
+        assertEquals(STATE_IDLE, mTinyMachine.getCurrentState());
+        mHandler.assertEqualEvents(
+                "reset in " + STATE_RUNNING,
+                new OnEntry(STATE_IDLE));
+    }
+
+    public void testTransitionInheritedByNestedState() {
+        mTinyMachine.fireEvent(new Start());
+        mTinyMachine.transitionTo(STATE_PAUSED);
+        mHandler.clearEvents();
+
+        mTinyMachine.fireEvent(new Stop());
+
+        assertEquals(STATE_STOPPED, mTinyMachine.getCurrentState());
+        mHandler.assertEqualEvents(new OnEntry(STATE_STOPPED));
+    }
+
+    public void testConcurrentMachine() {
+        TinyMachine tinyMachine = new ConcurrentTinyMachine(mHandler, STATE_IDLE);
+        tinyMachine.fireEvent("start");
+        tinyMachine.fireEvent(new Stop());
+
+        assertEquals(STATE_STOPPED, tinyMachine.getCurrentState());
+        mHandler.assertEqualEvents(
+                "start",
+                "queued",
+                new OnExit(STATE_IDLE),
+                new OnEntry(STATE_RUNNING),
+                new OnEntry(STATE_STOPPED));
+    }
+
+    public void testHandlerAndTransitionForSameEvent() {
+        try {
+            new TinyMachine(new DuplicateHandler(), STATE_IDLE);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
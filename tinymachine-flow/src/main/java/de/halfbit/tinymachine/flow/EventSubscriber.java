@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine.flow;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.halfbit.tinymachine.MachineObserver;
+import de.halfbit.tinymachine.TinyMachine;
+
+/**
+ * Subscriber firing received items as events into a machine.
+ *
+ * <p>
+ *     Subscriber requests <code>prefetch</code> items first. More items are requested
+ *     only after the machine has processed the received ones and its queue is drained,
+ *     so that at most <code>prefetch</code> received items wait in the queue. Demand is
+ *     replenished in batches of at least half of the prefetch.
+ *
+ * <p>
+ *     If a handler method throws an exception, the subscription is cancelled and the
+ *     exception is given to the uncaught exception handler of the current thread.
+ *     It is never rethrown to the publisher, as <code>onNext()</code> must return
+ *     normally. Terminal signals only detach subscriber from the machine, they are
+ *     not given to handler methods.
+ *
+ * <pre>
+ * publisher.subscribe(new EventSubscriber(tinyMachine, 64));
+ * </pre>
+ *
+ * @author Sergej Shafarenka
+ */
+public class EventSubscriber implements Flow.Subscriber<Object> {
+
+    private final TinyMachine mTinyMachine;
+    private final int mPrefetch;
+    private final int mReplenishLimit;
+    private final AtomicLong mReceivedCount;
+    private final Replenisher mReplenisher;
+
+    private volatile Flow.Subscription mSubscription;
+
+    /**
+     * Creates new subscriber for given machine.
+     *
+     * @param tinyMachine   machine to fire received items into
+     * @param prefetch      maximum number of received items waiting for processing
+     */
+    public EventSubscriber(TinyMachine tinyMachine, int prefetch) {
+        if (tinyMachine == null) {
+            throw new IllegalArgumentException("Machine must not be null.");
+        }
+        if (prefetch < 1) {
+            throw new IllegalArgumentException("Prefetch must be positive: " + prefetch);
+        }
+        mTinyMachine = tinyMachine;
+        mPrefetch = prefetch;
+        mReplenishLimit = Math.max(1, prefetch / 2);
+        mReceivedCount = new AtomicLong();
+        mReplenisher = new Replenisher();
+    }
+
+    //-- public api
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (subscription == null) {
+            throw new NullPointerException("Subscription must not be null.");
+        }
+        if (mSubscription != null) {
+            subscription.cancel(); // subscriber can only be subscribed once
+            return;
+        }
+        mSubscription = subscription;
+        mTinyMachine.addObserver(mReplenisher);
+        subscription.request(mPrefetch);
+    }
+
+    @Override
+    public void onNext(Object item) {
+        if (item == null) {
+            throw new NullPointerException("Item must not be null.");
+        }
+        // counted before firing, because machine can drain before fireEvent() returns
+        mReceivedCount.incrementAndGet();
+        try {
+            mTinyMachine.fireEvent(item);
+        } catch (RuntimeException | Error e) {
+            cancel();
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        mTinyMachine.removeObserver(mReplenisher);
+    }
+
+    @Override
+    public void onComplete() {
+        mTinyMachine.removeObserver(mReplenisher);
+    }
+
+    /**
+     * Cancels subscription and detaches subscriber from the machine. Items already
+     * received are still processed.
+     */
+    public void cancel() {
+        mTinyMachine.removeObserver(mReplenisher);
+        final Flow.Subscription subscription = mSubscription;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * Returns number of items received from the publisher.
+     */
+    public long getReceivedCount() {
+        return mReceivedCount.get();
+    }
+
+    //region Inner classes
+
+    /** Requests more items each time machine's queue gets drained. */
+    private final class Replenisher implements MachineObserver {
+
+        private long mRequestedBackCount;
+        private boolean mReplenishing;
+
+        @Override
+        public void onTransition(TinyMachine tm, int fromState, int toState) {
+            // nothing
+        }
+
+        @Override
+        public synchronized void onDrained(TinyMachine tm) {
+            if (mReplenishing) {
+                return; // items delivered by request() got processed, outer loop continues
+            }
+            mReplenishing = true;
+            try {
+                for (;;) {
+                    final long received = mReceivedCount.get();
+                    final long processed = received - mRequestedBackCount;
+                    if (processed < mReplenishLimit) {
+                        return;
+                    }
+                    mRequestedBackCount = received;
+                    mSubscription.request(processed);
+                }
+            } finally {
+                mReplenishing = false;
+            }
+        }
+    }
+
+    //endregion
+
+}
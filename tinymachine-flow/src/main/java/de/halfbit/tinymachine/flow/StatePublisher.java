@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine.flow;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.halfbit.tinymachine.MachineObserver;
+import de.halfbit.tinymachine.TinyMachine;
+
+/**
+ * Publisher emitting states entered by a machine.
+ *
+ * <p>
+ *     Each subscriber has a bounded buffer of states. The machine only puts states into
+ *     the buffers and never waits for subscribers. States are delivered on the executor
+ *     in batches, a batch is started when the machine has drained its queue and lasts
+ *     as long as there are buffered states and demand for them.
+ *
+ * <p>
+ *     If a subscriber is too slow and its buffer is full, the oldest buffered state is
+ *     conflated with newer ones, so that subscribers always receive the latest state.
+ *
+ * <pre>
+ * StatePublisher publisher = new StatePublisher(tinyMachine, executor, 16);
+ * publisher.subscribe(subscriber);
+ * ...
+ * publisher.close();
+ * </pre>
+ *
+ * @author Sergej Shafarenka
+ */
+public class StatePublisher implements Flow.Publisher<Integer> {
+
+    private static final StateSubscription[] NO_SUBSCRIPTIONS = new StateSubscription[0];
+
+    private final TinyMachine mTinyMachine;
+    private final Executor mExecutor;
+    private final int mBufferCapacity;
+    private final Observer mObserver;
+
+    private volatile StateSubscription[] mSubscriptions;
+    private boolean mClosed;
+
+    /**
+     * Creates new publisher delivering states on common fork-join pool.
+     *
+     * @param tinyMachine   machine, which states are published
+     * @see #StatePublisher(TinyMachine, Executor, int)
+     */
+    public StatePublisher(TinyMachine tinyMachine) {
+        this(tinyMachine, ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /**
+     * Creates new publisher and attaches it to given machine.
+     *
+     * @param tinyMachine       machine, which states are published
+     * @param executor          executor delivering states to subscribers
+     * @param bufferCapacity    maximum number of states buffered for a subscriber
+     */
+    public StatePublisher(TinyMachine tinyMachine, Executor executor, int bufferCapacity) {
+        if (tinyMachine == null) {
+            throw new IllegalArgumentException("Machine must not be null.");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+        if (bufferCapacity < 1) {
+            throw new IllegalArgumentException("Buffer capacity must be positive: "
+                    + bufferCapacity);
+        }
+        mTinyMachine = tinyMachine;
+        mExecutor = executor;
+        mBufferCapacity = bufferCapacity;
+        mSubscriptions = NO_SUBSCRIPTIONS;
+        mObserver = new Observer();
+        tinyMachine.addObserver(mObserver);
+    }
+
+    //-- public api
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Integer> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber must not be null.");
+        }
+        final StateSubscription subscription = new StateSubscription(subscriber);
+        final boolean closed;
+        synchronized (this) {
+            closed = mClosed;
+            if (!closed) {
+                final StateSubscription[] subscriptions = mSubscriptions;
+                final StateSubscription[] copy =
+                        Arrays.copyOf(subscriptions, subscriptions.length + 1);
+                copy[subscriptions.length] = subscription;
+                mSubscriptions = copy;
+            }
+        }
+        subscriber.onSubscribe(subscription);
+        if (closed) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * Detaches publisher from the machine. Subscribers receive buffered states
+     * and get completed.
+     */
+    public void close() {
+        final StateSubscription[] subscriptions;
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            subscriptions = mSubscriptions;
+            mSubscriptions = NO_SUBSCRIPTIONS;
+        }
+        mTinyMachine.removeObserver(mObserver);
+        for (StateSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * Returns number of states conflated for slow subscribers.
+     */
+    public long getConflatedCount() {
+        long count = 0;
+        for (StateSubscription subscription : mSubscriptions) {
+            count += subscription.getConflatedCount();
+        }
+        return count;
+    }
+
+    //-- implementation
+
+    private synchronized void remove(StateSubscription subscription) {
+        final StateSubscription[] subscriptions = mSubscriptions;
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i] == subscription) {
+                final StateSubscription[] copy = new StateSubscription[subscriptions.length - 1];
+                System.arraycopy(subscriptions, 0, copy, 0, i);
+                System.arraycopy(subscriptions, i + 1, copy, i, copy.length - i);
+                mSubscriptions = copy;
+                return;
+            }
+        }
+    }
+
+    //region Inner classes
+
+    private final class Observer implements MachineObserver {
+
+        @Override
+        public void onTransition(TinyMachine tm, int fromState, int toState) {
+            for (StateSubscription subscription : mSubscriptions) {
+                subscription.offer(toState);
+            }
+        }
+
+        @Override
+        public void onDrained(TinyMachine tm) {
+            for (StateSubscription subscription : mSubscriptions) {
+                if (subscription.hasBufferedStates()) {
+                    subscription.schedule();
+                }
+            }
+        }
+    }
+
+    /**
+     * Buffers states for a subscriber and delivers them on the executor. Buffer is
+     * guarded by subscription's monitor, delivery is serialized by work-in-progress
+     * counter.
+     */
+    private final class StateSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super Integer> mSubscriber;
+        private final int[] mBuffer;
+        private final AtomicInteger mWip;
+
+        private int mHead;
+        private int mSize;
+        private long mDemand;
+        private long mConflatedCount;
+        private boolean mCompleted;
+        private Throwable mError;
+        private volatile boolean mCancelled;
+
+        StateSubscription(Flow.Subscriber<? super Integer> subscriber) {
+            mSubscriber = subscriber;
+            mBuffer = new int[mBufferCapacity];
+            mWip = new AtomicInteger();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    mError = new IllegalArgumentException("Request must be positive: " + n);
+                } else {
+                    final long demand = mDemand + n;
+                    mDemand = demand < 0 ? Long.MAX_VALUE : demand;
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+            remove(this);
+        }
+
+        /** Buffers state entered by the machine, conflating the oldest one if full. */
+        synchronized void offer(int state) {
+            if (mSize == mBuffer.length) {
+                mHead = (mHead + 1) % mBuffer.length;
+                mSize--;
+                mConflatedCount++;
+            }
+            mBuffer[(mHead + mSize) % mBuffer.length] = state;
+            mSize++;
+        }
+
+        void complete() {
+            synchronized (this) {
+                mCompleted = true;
+            }
+            schedule();
+        }
+
+        synchronized boolean hasBufferedStates() {
+            return mSize > 0;
+        }
+
+        synchronized long getConflatedCount() {
+            return mConflatedCount;
+        }
+
+        /** Starts delivery on the executor, unless it is already running. */
+        void schedule() {
+            if (mWip.getAndIncrement() == 0) {
+                mExecutor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            for (;;) {
+                if (deliver()) {
+                    return;
+                }
+                missed = mWip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Delivers buffered states while there is demand.
+         *
+         * @return <code>true</code> if subscription has terminated
+         */
+        private boolean deliver() {
+            for (;;) {
+                if (mCancelled) {
+                    return true;
+                }
+                final int state;
+                synchronized (this) {
+                    if (mError != null) {
+                        mCancelled = true;
+                    } else if (mSize == 0) {
+                        if (!mCompleted) {
+                            return false;
+                        }
+                        mCancelled = true;
+                    } else if (mDemand == 0) {
+                        return false;
+                    }
+                    state = mBuffer[mHead];
+                    if (!mCancelled) {
+                        mHead = (mHead + 1) % mBuffer.length;
+                        mSize--;
+                        if (mDemand != Long.MAX_VALUE) {
+                            mDemand--;
+                        }
+                    }
+                }
+                if (mCancelled) {
+                    remove(this);
+                    if (mError != null) {
+                        mSubscriber.onError(mError);
+                    } else {
+                        mSubscriber.onComplete();
+                    }
+                    return true;
+                }
+                try {
+                    mSubscriber.onNext(state);
+                } catch (RuntimeException | Error e) {
+                    cancel(); // subscriber violated the contract
+                    throw e;
+                }
+            }
+        }
+    }
+
+    //endregion
+
+}
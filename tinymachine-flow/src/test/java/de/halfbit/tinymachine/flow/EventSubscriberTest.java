@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine.flow;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.halfbit.tinymachine.ConcurrentTinyMachine;
+import de.halfbit.tinymachine.StateHandler;
+import de.halfbit.tinymachine.TinyMachine;
+
+public class EventSubscriberTest extends TestCase {
+
+    private static final int STATE_A = 0;
+
+    public static class CountingHandler {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        @StateHandler(state = STATE_A)
+        public void onEvent(String event, TinyMachine tm) {
+            if ("fail".equals(event)) {
+                throw new IllegalStateException(event);
+            }
+            count.incrementAndGet();
+            if ("nested".equals(event)) {
+                tm.fireEvent("nested-child");
+            }
+        }
+    }
+
+    private static class RecordingSubscription implements Flow.Subscription {
+
+        final ArrayList<Long> requests = new ArrayList<>();
+        boolean cancelled;
+
+        @Override
+        public void request(long n) {
+            requests.add(n);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    public void testRequestsAfterProcessing() {
+        CountingHandler handler = new CountingHandler();
+        TinyMachine tinyMachine = new TinyMachine(handler, STATE_A);
+        EventSubscriber subscriber = new EventSubscriber(tinyMachine, 4);
+        RecordingSubscription subscription = new RecordingSubscription();
+
+        subscriber.onSubscribe(subscription);
+        assertEquals(1, subscription.requests.size());
+        assertEquals(4L, (long) subscription.requests.get(0));
+
+        subscriber.onNext("a");
+        assertEquals(1, subscription.requests.size()); // less than half of prefetch
+
+        subscriber.onNext("nested");
+        assertEquals(2, subscription.requests.size());
+        assertEquals(2L, (long) subscription.requests.get(1));
+        assertEquals(3, handler.count.get());
+        assertEquals(2, subscriber.getReceivedCount());
+
+        subscriber.onComplete();
+        subscriber.onNext("b");
+        subscriber.onNext("c");
+        assertEquals(2, subscription.requests.size()); // detached from machine
+        assertEquals(5, handler.count.get());
+    }
+
+    public void testSubscribesOnlyOnce() {
+        EventSubscriber subscriber = new EventSubscriber(
+                new TinyMachine(new CountingHandler(), STATE_A), 1);
+        RecordingSubscription first = new RecordingSubscription();
+        RecordingSubscription second = new RecordingSubscription();
+        subscriber.onSubscribe(first);
+        subscriber.onSubscribe(second);
+        assertFalse(first.cancelled);
+        assertTrue(second.cancelled);
+        assertTrue(second.requests.isEmpty());
+    }
+
+    public void testHandlerExceptionCancelsSubscription() {
+        CountingHandler handler = new CountingHandler();
+        EventSubscriber subscriber = new EventSubscriber(new TinyMachine(handler, STATE_A), 2);
+        RecordingSubscription subscription = new RecordingSubscription();
+        subscriber.onSubscribe(subscription);
+
+        final ArrayList<Throwable> uncaught = new ArrayList<>();
+        final Thread thread = Thread.currentThread();
+        final Thread.UncaughtExceptionHandler previous = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                uncaught.add(e);
+            }
+        });
+        try {
+            subscriber.onNext("fail"); // must return normally
+        } finally {
+            thread.setUncaughtExceptionHandler(previous);
+        }
+        assertTrue(subscription.cancelled);
+        assertEquals(1, uncaught.size());
+        assertTrue(uncaught.get(0) instanceof IllegalStateException);
+
+        subscriber.onNext("a"); // machine keeps working
+        assertEquals(1, handler.count.get());
+    }
+
+    public void testEndToEndWithConcurrentMachine() throws Exception {
+        final int count = 10000;
+        CountingHandler handler = new CountingHandler();
+        TinyMachine tinyMachine = new ConcurrentTinyMachine(handler, STATE_A);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            SubmissionPublisher<Object> publisher = new SubmissionPublisher<>(executor, 16);
+            publisher.subscribe(new EventSubscriber(tinyMachine, 8));
+            for (int i = 0; i < count; i++) {
+                publisher.submit("event");
+            }
+            publisher.close();
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (handler.count.get() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, handler.count.get());
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+}
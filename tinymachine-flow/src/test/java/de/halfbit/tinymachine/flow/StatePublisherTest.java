@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine.flow;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+import de.halfbit.tinymachine.StateHandler;
+import de.halfbit.tinymachine.TinyMachine;
+
+public class StatePublisherTest extends TestCase {
+
+    private static final int STATE_A = 0;
+    private static final int STATE_B = 1;
+    private static final int STATE_C = 2;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    public static class ChainHandler {
+
+        @StateHandler(state = STATE_A)
+        public void onEventA(String event, TinyMachine tm) {
+            tm.transitionTo(STATE_B);
+            tm.transitionTo(STATE_C);
+        }
+
+        @StateHandler(state = STATE_C)
+        public void onEventC(String event, TinyMachine tm) {
+            tm.transitionTo(STATE_A);
+        }
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Integer> {
+
+        final ArrayList<Integer> states = new ArrayList<>();
+        final long initialRequest;
+        Flow.Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            states.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    public void testStatesDeliveredAfterDrain() {
+        TinyMachine tinyMachine = new TinyMachine(new ChainHandler(), STATE_A);
+        StatePublisher publisher = new StatePublisher(tinyMachine, DIRECT, 8);
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+
+        tinyMachine.fireEvent("go");
+        assertEquals(Arrays.asList(STATE_B, STATE_C), subscriber.states);
+
+        tinyMachine.fireEvent("back");
+        assertEquals(Arrays.asList(STATE_B, STATE_C, STATE_A), subscriber.states);
+
+        publisher.close();
+        assertTrue(subscriber.completed);
+        tinyMachine.fireEvent("go");
+        assertEquals(3, subscriber.states.size());
+    }
+
+    public void testSlowSubscriberGetsConflatedStates() {
+        TinyMachine tinyMachine = new TinyMachine(new ChainHandler(), STATE_A);
+        StatePublisher publisher = new StatePublisher(tinyMachine, DIRECT, 2);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+
+        tinyMachine.fireEvent("go");
+        tinyMachine.fireEvent("back");
+        assertTrue(subscriber.states.isEmpty());
+        assertEquals(1, publisher.getConflatedCount());
+
+        subscriber.subscription.request(1);
+        assertEquals(Arrays.asList(STATE_C), subscriber.states);
+        subscriber.subscription.request(5);
+        assertEquals(Arrays.asList(STATE_C, STATE_A), subscriber.states);
+    }
+
+    public void testCancelledSubscriberReceivesNothing() {
+        TinyMachine tinyMachine = new TinyMachine(new ChainHandler(), STATE_A);
+        StatePublisher publisher = new StatePublisher(tinyMachine, DIRECT, 8);
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.cancel();
+
+        tinyMachine.fireEvent("go");
+        publisher.close();
+        assertTrue(subscriber.states.isEmpty());
+        assertFalse(subscriber.completed);
+    }
+
+    public void testNonPositiveRequestIsError() {
+        StatePublisher publisher = new StatePublisher(
+                new TinyMachine(new ChainHandler(), STATE_A), DIRECT, 8);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+}
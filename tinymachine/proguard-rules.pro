@@ -1,3 +1,12 @@
 -keepclassmembers, allowobfuscation class ** {
     @de.halfbit.tinymachine.StateHandler public *;
-}
\ No newline at end of file
+}
+
+# generated dispatchers are looked up by the name of handler class
+-keepnames class ** {
+    @de.halfbit.tinymachine.StateHandler public *;
+}
+-keep class **$$Dispatcher { *; }
+
+# default logger is instantiated by ServiceLoader
+-keep class de.halfbit.tinymachine.LogcatLogger { <init>(); }
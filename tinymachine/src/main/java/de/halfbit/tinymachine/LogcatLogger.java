@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 Sergej Shafarenka, halfbit.de
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.halfbit.tinymachine;
+
+import android.util.Log;
+
+/**
+ * Writes machine traces to LogCat. This logger is registered as a service and is used
+ * by default on Android.
+ *
+ * @author Sergej Shafarenka
+ */
+public class LogcatLogger implements Logger {
+
+    @Override
+    public void log(String tag, String message) {
+        Log.d(tag, message);
+    }
+
+}